@@ -0,0 +1,220 @@
+package in.pazmysaz.essql;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import in.pazmysaz.essql.model.Utils;
+
+/**
+ * Executes write requests (index, update and delete) as bulks using a {@link BulkProcessor}. Requests are
+ * collected into a bulk which is sent when it holds {@link Utils#PROP_BULK_ACTIONS} requests or
+ * {@link Utils#PROP_BULK_SIZE_MB} of data, or when {@link Utils#PROP_BULK_FLUSH_MS} has passed. Up to
+ * {@link Utils#PROP_BULK_CONCURRENCY} bulks are executed concurrently while the next one is being filled,
+ * adding a request blocks as long as that number of bulks is in flight which keeps memory use bounded.
+ * Requests rejected because the cluster is overloaded (429) are retried with an exponential backoff, all
+ * other failures of single requests are collected and reported by {@link #finish()}.
+ * 
+ * Requests can be added for a slot (like the position of a parameter set within a JDBC batch) in which case
+ * the outcome of each request is tracked and {@link #getCounts(int)} returns the number of requests executed
+ * successfully per slot. Requests are only referenced while their bulk is in flight (including retries), once
+ * the bulk has finished their outcome is added to the counts of their slot.
+ * 
+ * When execution is aborted {@link #close()} drops the requests which have not been sent yet and waits for
+ * the bulks in flight, no requests are executed after it returns.
+ *
+ * @author cversloot
+ *
+ */
+public class BulkPipeline {
+
+	// maximum number of failures kept to be reported
+	private static final int MAX_REPORTED_FAILURES = 100;
+
+	private final BulkProcessor processor;
+	private final AtomicLong succeeded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+	// tracked requests within bulks in flight and those which have been executed successfully so far 
+	private final Map<DocWriteRequest<?>, Integer> slots = Collections.synchronizedMap(new IdentityHashMap<DocWriteRequest<?>, Integer>());
+	private final Set<DocWriteRequest<?>> executed = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<DocWriteRequest<?>, Boolean>()));
+	// outcome per slot of the tracked requests within finished bulks
+	private int[] slotCounts = new int[0];
+	private final BitSet slotsFailed = new BitSet();
+	// set when execution is aborted, bulks which have not been sent yet are dropped 
+	private volatile boolean aborted = false;
+
+	/**
+	 * Creates a pipeline executing bulks on the client configured using the provided properties
+	 * @param client
+	 * @param props
+	 */
+	public BulkPipeline(Client client, Properties props){
+		int actions = Utils.getIntProp(props, Utils.PROP_BULK_ACTIONS, Utils.getIntProp(props, Utils.PROP_FETCH_SIZE, 2500));
+		BulkProcessor.Builder builder = BulkProcessor.builder((request, listener) -> {
+					if(aborted) listener.onFailure(new CancellationException("bulk dropped because execution was aborted"));
+					else client.bulk(request, ActionListener.wrap(response -> {track(request, response); listener.onResponse(response);}, listener::onFailure));
+				}, new Listener())
+				.setBulkActions(actions)
+				.setBulkSize(new ByteSizeValue(Utils.getIntProp(props, Utils.PROP_BULK_SIZE_MB, 5), ByteSizeUnit.MB))
+				.setConcurrentRequests(Math.max(0, Utils.getIntProp(props, Utils.PROP_BULK_CONCURRENCY, 2)))
+				.setBackoffPolicy(BackoffPolicy.exponentialBackoff(
+						TimeValue.timeValueMillis(Utils.getIntProp(props, Utils.PROP_BULK_BACKOFF_MS, 50)),
+						Utils.getIntProp(props, Utils.PROP_BULK_RETRIES, 8)));
+		int flushInterval = Utils.getIntProp(props, Utils.PROP_BULK_FLUSH_MS, 0);
+		if(flushInterval > 0) builder.setFlushInterval(TimeValue.timeValueMillis(flushInterval));
+		this.processor = builder.build();
+	}
+
+	/**
+	 * Adds the request to the current bulk, blocking while the maximum number of bulks is in flight
+	 * when this causes the bulk to be sent
+	 * @param request
+	 * @return this pipeline
+	 */
+	public BulkPipeline add(DocWriteRequest<?> request){
+		processor.add(request);
+		return this;
+	}
+
+	/**
+	 * Adds the request to the current bulk and tracks its outcome for the provided slot
+	 * @param request
+	 * @param slot
+	 * @return this pipeline
+	 */
+	public BulkPipeline add(DocWriteRequest<?> request, int slot){
+		slots.put(request, slot);
+		return add(request);
+	}
+
+	/**
+	 * Sends the current bulk and waits until all bulks have been executed
+	 * @return the number of requests executed successfully
+	 * @throws SQLException if any of the requests failed, the failures of (at most 100) single requests
+	 * are available as the chain of next exceptions
+	 */
+	public int finish() throws SQLException{
+		try {
+			processor.awaitClose(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for bulk requests to finish", e);
+		}
+		if(failed.get() > 0){
+			List<String> reported = new ArrayList<String>(failures);
+			SQLException e = new SQLException(failed.get()+" of "+(failed.get() + succeeded.get())+
+					" requests failed"+(reported.isEmpty() ? "" : ", first failure: "+reported.get(0)));
+			for(String failure : reported) e.setNextException(new SQLException(failure));
+			throw e;
+		}
+		return (int)succeeded.get();
+	}
+
+	/**
+	 * Drops the requests which have not been sent yet and waits for the bulks in flight to finish. Used
+	 * when execution is aborted, does nothing after {@link #finish()} has completed.
+	 */
+	public void close(){
+		aborted = true;
+		try {
+			processor.awaitClose(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the number of requests executed successfully for each slot, should be called after {@link #finish()}
+	 * @param size the number of slots
+	 * @return the counts with {@link Statement#EXECUTE_FAILED} for slots having one or more failed requests
+	 */
+	public synchronized int[] getCounts(int size){
+		int[] counts = Arrays.copyOf(slotCounts, size);
+		for(int i=0; i<size; i++) if(slotsFailed.get(i)) counts[i] = Statement.EXECUTE_FAILED;
+		return counts;
+	}
+
+	/**
+	 * Records the tracked requests executed successfully by an attempt to execute a bulk. Requests rejected by
+	 * an attempt are retried within a later attempt which may still succeed.
+	 */
+	private void track(BulkRequest request, BulkResponse response){
+		if(slots.isEmpty()) return;
+		for(BulkItemResponse item : response.getItems()){
+			if(!item.isFailed()) executed.add(request.requests().get(item.getItemId()));
+		}
+	}
+
+	/**
+	 * Adds the outcome of the tracked requests within a bulk that has finished (after all retries) to the 
+	 * counts of their slots and releases the requests
+	 */
+	private void finished(BulkRequest request){
+		if(slots.isEmpty()) return;
+		for(DocWriteRequest<?> r : request.requests()){
+			Integer slot = slots.remove(r);
+			if(slot != null) record(slot, executed.remove(r));
+		}
+	}
+
+	private synchronized void record(int slot, boolean success){
+		if(slot >= slotCounts.length) slotCounts = Arrays.copyOf(slotCounts, Math.max(slot + 1, slotCounts.length * 2));
+		if(success) slotCounts[slot]++;
+		else slotsFailed.set(slot);
+	}
+
+	private void addFailure(String failure){
+		if(failures.size() < MAX_REPORTED_FAILURES) failures.add(failure);
+	}
+
+	/**
+	 * Counts the results of the executed bulks
+	 */
+	private class Listener implements BulkProcessor.Listener {
+
+		@Override
+		public void beforeBulk(long executionId, BulkRequest request) { }
+
+		@Override
+		public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+			for(BulkItemResponse item : response.getItems()){
+				if(item.isFailed()){
+					failed.incrementAndGet();
+					addFailure(item.getOpType().getLowercase()+" of '"+item.getIndex()+"/"+item.getId()+"' failed: "+item.getFailureMessage());
+				}else succeeded.incrementAndGet();
+			}
+			finished(request);
+		}
+
+		@Override
+		public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+			failed.addAndGet(request.numberOfActions());
+			addFailure("bulk of "+request.numberOfActions()+" requests failed: "+failure.getMessage());
+			finished(request);
+		}
+	}
+}
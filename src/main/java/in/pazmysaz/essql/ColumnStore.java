@@ -0,0 +1,722 @@
+package in.pazmysaz.essql;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Column oriented storage of the rows held by an {@link ESResultSet}. Every column gets its own vector
+ * which is chosen based on the first value stored in it: longs and integers are kept in a long[], doubles
+ * and floats in a double[], strings as codes into a dictionary of distinct values and anything else as
+ * objects. Nulls are tracked in a bitmap per vector. A vector turns into an object vector as soon as a value
+ * arrives it can not hold which guarantees values are returned with the same class they were stored with.
+ *
+ * Rows are added by copying the values of a row list into the vectors, the row lists themselves are not
+ * retained. Row views returned by {@link #row(int)} read from (and write to) the vectors.
+ *
+ * When a memory budget is set the rows held in the vectors are moved to a {@link SpillFile} once their
+ * estimated size exceeds the budget. Spilled rows always precede the rows held in memory and are read back
+ * one at a time, the last row read is cached and written back when it was changed.
+ *
+ * @author cversloot
+ *
+ */
+class ColumnStore {
+
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int SPILL_CHECK_INTERVAL = 256;
+	private static final int PARALLEL_SORT_THRESHOLD = 8192;
+
+	private final long budget;
+	private Vector[] vectors = new Vector[0];
+	private int size = 0;
+	private int columnCount = 0;
+
+	private SpillFile spill = null;
+	private boolean spillable = true;
+	private int spilled = 0;
+	private Map<Integer, Object[]> pinned = new HashMap<Integer, Object[]>();
+	private int cachedRow = -1;
+	private Object[] cachedValues = null;
+	private boolean cachedDirty = false;
+
+	ColumnStore(){
+		this(0);
+	}
+
+	/**
+	 * @param budget the estimated number of bytes the rows may occupy on the heap before they are spilled 
+	 * to disk, 0 or less keeps all rows on the heap
+	 */
+	ColumnStore(long budget){
+		this.budget = budget;
+	}
+
+	/**
+	 * @return the number of rows in this store
+	 */
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * @return the number of columns of the widest row added
+	 */
+	public int columnCount(){
+		return columnCount;
+	}
+
+	/**
+	 * Appends the first columns values of the row to this store
+	 * @param row
+	 * @param columns
+	 */
+	public void add(List<Object> row, int columns){
+		columns = Math.min(columns, row.size());
+		if(columns > columnCount) columnCount = columns;
+		for(int col=0; col<columns; col++){
+			Object value = row.get(col);
+			if(value != null) set(size, col, value);
+		}
+		size++;
+		if(budget > 0 && spillable && (size - spilled) % SPILL_CHECK_INTERVAL == 0 && estimateBytes() > budget) spill();
+	}
+
+	public Object get(int row, int col){
+		if(row < spilled) {
+			Object[] values = load(row);
+			return col < values.length ? values[col] : null;
+		}
+		if(col >= vectors.length || vectors[col] == null) return null;
+		return vectors[col].get(row - spilled);
+	}
+
+	public void set(int row, int col, Object value){
+		if(col >= columnCount) columnCount = col+1;
+		if(row < spilled){
+			Object[] values = load(row);
+			if(col >= values.length) values = cachedValues = Arrays.copyOf(values, columnCount);
+			values[col] = value;
+			cachedDirty = true;
+			return;
+		}
+		if(col >= vectors.length) vectors = Arrays.copyOf(vectors, Math.max(col+1, columnCount));
+		Vector vector = vectors[col];
+		if(value == null){
+			if(vector != null) vector.setNull(row - spilled);
+			return;
+		}
+		if(vector == null) vector = vectors[col] = Vector.forValue(value);
+		else if(!vector.accepts(value)) vector = vectors[col] = new ObjectVector(vector);
+		vector.set(row - spilled, value);
+	}
+
+	public boolean isNull(int row, int col){
+		return get(row, col) == null;
+	}
+
+	/**
+	 * @param row
+	 * @param col
+	 * @return true if the value of the row and column is held as a primitive number which can be read using
+	 * {@link #getLong(int, int)} and {@link #getDouble(int, int)} without boxing it
+	 */
+	public boolean isNumeric(int row, int col){
+		return row >= spilled && col < vectors.length 
+				&& (vectors[col] instanceof LongVector || vectors[col] instanceof DoubleVector);
+	}
+
+	/**
+	 * Reads a value from a numeric column, see {@link #isNumeric(int, int)}
+	 * @return the value or 0 if it is null
+	 */
+	public long getLong(int row, int col){
+		Vector vector = vectors[col];
+		row -= spilled;
+		if(vector.isNull(row)) return 0;
+		if(vector instanceof LongVector) return ((LongVector)vector).values[row];
+		return (long)((DoubleVector)vector).values[row];
+	}
+
+	/**
+	 * Reads a value from a numeric column, see {@link #isNumeric(int, int)}
+	 * @return the value or 0 if it is null
+	 */
+	public double getDouble(int row, int col){
+		Vector vector = vectors[col];
+		row -= spilled;
+		if(vector.isNull(row)) return 0;
+		if(vector instanceof DoubleVector) return ((DoubleVector)vector).values[row];
+		return ((LongVector)vector).values[row];
+	}
+
+	/**
+	 * Returns a view on a single row. Changes made through the view are written to this store.
+	 * @param row
+	 * @return
+	 */
+	public List<Object> row(final int row){
+		if(row < 0 || row >= size) throw new IndexOutOfBoundsException("Row "+row+" does not exist");
+		return new AbstractList<Object>(){
+			@Override
+			public Object get(int col) {
+				return ColumnStore.this.get(row, col);
+			}
+
+			@Override
+			public Object set(int col, Object value) {
+				Object old = ColumnStore.this.get(row, col);
+				ColumnStore.this.set(row, col, value);
+				return old;
+			}
+
+			@Override
+			public int size() {
+				return columnCount;
+			}
+		};
+	}
+
+	/**
+	 * Sorts the rows in this store using the comparator. Rows which are equal keep their order. Large stores
+	 * held in memory are sorted using a parallel merge sort, the comparator must be thread safe in that case. 
+	 * @param comparator
+	 */
+	public void sort(Comparator<List<Object>> comparator){
+		Integer[] order = new Integer[size];
+		for(int i=0; i<size; i++) order[i] = i;
+		// spilled rows are read through a single cached row which can not be shared between threads
+		if(size >= PARALLEL_SORT_THRESHOLD && spilled == 0) Arrays.parallelSort(order, rowComparator(comparator));
+		else Arrays.sort(order, rowComparator(comparator));
+		reorder(order, size);
+	}
+
+	/**
+	 * Keeps only the first k rows as they would be after sorting them using the comparator. The rows are 
+	 * selected using a bounded heap which avoids sorting all rows when only a few of them are needed.
+	 * @param comparator
+	 * @param k
+	 */
+	public void sort(Comparator<List<Object>> comparator, int k){
+		if(k < 0 || k >= size) {
+			sort(comparator);
+			return;
+		}
+		Comparator<Integer> rowComparator = rowComparator(comparator);
+		// the head of the heap holds the largest row selected so far
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.max(1, k), Collections.reverseOrder(rowComparator));
+		for(int row=0; row<size && k > 0; row++){
+			if(heap.size() < k) heap.add(row);
+			else if(rowComparator.compare(row, heap.peek()) < 0){
+				heap.poll();
+				heap.add(row);
+			}
+		}
+		Integer[] order = new Integer[heap.size()];
+		for(int i=order.length-1; i>=0; i--) order[i] = heap.poll();
+		reorder(order, order.length);
+	}
+
+	/**
+	 * Compares rows by their index using the comparator on their values and their index when equal 
+	 */
+	private Comparator<Integer> rowComparator(final Comparator<List<Object>> comparator){
+		return new Comparator<Integer>(){
+			@Override
+			public int compare(Integer r1, Integer r2) {
+				int res = comparator.compare(row(r1), row(r2));
+				return res != 0 ? res : Integer.compare(r1, r2);
+			}
+		};
+	}
+
+	/**
+	 * Replaces the content of this store by the provided rows (in the provided order)
+	 */
+	private void reorder(Integer[] order, int count){
+		if(spilled > 0){
+			int[] rows = new int[count];
+			for(int i=0; i<count; i++) rows[i] = order[i];
+			rebuild(rows, count);
+			return;
+		}
+		for(int col=0; col<vectors.length; col++){
+			if(vectors[col] == null) continue;
+			Vector sorted = vectors[col].emptyCopy(count);
+			for(int i=0; i<count; i++) vectors[col].copy(order[i], sorted, i);
+			vectors[col] = sorted;
+		}
+		size = count;
+	}
+
+	/**
+	 * Keeps only the rows flagged in the provided set, preserving their order
+	 * @param keep
+	 */
+	public void retain(BitSet keep){
+		if(spilled > 0){
+			int[] rows = new int[keep.cardinality()];
+			int count = 0;
+			for(int row = keep.nextSetBit(0); row >= 0 && row < size; row = keep.nextSetBit(row+1)) rows[count++] = row;
+			rebuild(rows, count);
+			return;
+		}
+		int target = 0;
+		for(int row = keep.nextSetBit(0); row >= 0 && row < size; row = keep.nextSetBit(row+1)){
+			if(row != target) for(Vector vector : vectors) if(vector != null) vector.copy(row, vector, target);
+			target++;
+		}
+		truncate(target);
+	}
+
+	/**
+	 * Drops all rows beyond the provided number of rows
+	 * @param rows
+	 */
+	public void truncate(int rows){
+		if(rows >= size) return;
+		if(rows >= spilled){
+			for(Vector vector : vectors) if(vector != null) vector.truncate(rows - spilled);
+		}else{
+			flush();
+			for(Vector vector : vectors) if(vector != null) vector.truncate(0);
+			if(spill != null) spill.truncate(rows);
+			spilled = rows;
+			if(cachedRow >= rows) cachedRow = -1;
+			for(int row : new ArrayList<Integer>(pinned.keySet())) if(row >= rows) pinned.remove(row);
+		}
+		size = rows;
+	}
+
+	/**
+	 * Removes all rows from this store while keeping the allocated vectors for reuse
+	 */
+	public void clear(){
+		truncate(0);
+	}
+
+	/**
+	 * Releases the file holding spilled rows (if any). Rows which have been spilled can not be read afterwards.
+	 */
+	public void close(){
+		cachedRow = -1;
+		cachedDirty = false;
+		if(spill == null) return;
+		try {
+			spill.close();
+		} catch (IOException e) {
+			// the file is removed on exit
+		}
+		spill = null;
+	}
+
+	/**
+	 * Estimates the number of bytes used by the rows held on the heap
+	 */
+	private long estimateBytes(){
+		long bytes = 0;
+		for(Vector vector : vectors) if(vector != null) bytes += vector.estimateBytes();
+		return bytes;
+	}
+
+	/**
+	 * Moves all rows held on the heap to the spill file. If any of the rows can not be spilled nothing is 
+	 * moved and spilling is disabled for this store which keeps all subsequent rows on the heap.
+	 */
+	private void spill(){
+		flush();
+		int resident = size - spilled;
+		try{
+			if(spill == null) spill = new SpillFile();
+			for(int row=spilled; row<size; row++){
+				if(!spill.append(row(row), columnCount)){
+					spill.truncate(spilled);
+					spillable = false;
+					return;
+				}
+			}
+		}catch(IOException e){
+			if(spill != null) spill.truncate(spilled);
+			spillable = false;
+			return;
+		}
+		spilled += resident;
+		vectors = new Vector[vectors.length];
+	}
+
+	/**
+	 * Returns the values of a spilled row, writing back the previously read row when it was changed
+	 */
+	private Object[] load(int row){
+		if(row == cachedRow) return cachedValues;
+		flush();
+		Object[] values = pinned.get(row);
+		if(values == null && spill == null) throw new IllegalStateException("Spilled rows have been released");
+		if(values == null) try {
+			values = spill.read(row, columnCount);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to read spilled row "+row, e);
+		}
+		cachedRow = row;
+		cachedValues = values;
+		return values;
+	}
+
+	/**
+	 * Writes the cached row back to the spill file if it has been changed. Rows which can no longer be
+	 * spilled are kept on the heap. 
+	 */
+	private void flush(){
+		if(!cachedDirty) return;
+		cachedDirty = false;
+		try {
+			if(spill.rewrite(cachedRow, Arrays.asList(cachedValues))) pinned.remove(cachedRow);
+			else pinned.put(cachedRow, cachedValues);
+		} catch (IOException e) {
+			pinned.put(cachedRow, cachedValues);
+		}
+	}
+
+	/**
+	 * Replaces the content of this store by the provided rows (in the provided order). The rows are copied
+	 * into a new store, spilling them to a new file when required.
+	 */
+	private void rebuild(int[] rows, int count){
+		ColumnStore target = new ColumnStore(budget);
+		for(int i=0; i<count; i++) target.add(row(rows[i]), columnCount);
+		close();
+		this.vectors = target.vectors;
+		this.size = target.size;
+		this.spill = target.spill;
+		this.spillable = target.spillable;
+		this.spilled = target.spilled;
+		this.pinned = target.pinned;
+	}
+
+	/**
+	 * Storage of the values of a single column
+	 */
+	private static abstract class Vector {
+
+		protected final BitSet nulls = new BitSet();
+		protected int size = 0;
+
+		private static Vector forValue(Object value){
+			if(value instanceof Long) return new LongVector(false);
+			if(value instanceof Integer) return new LongVector(true);
+			if(value instanceof Double) return new DoubleVector(false);
+			if(value instanceof Float) return new DoubleVector(true);
+			if(value instanceof String) return new StringVector();
+			return new ObjectVector();
+		}
+
+		/**
+		 * @return true if the (non null) value can be held by this vector
+		 */
+		protected abstract boolean accepts(Object value);
+
+		protected abstract void store(int row, Object value);
+
+		protected abstract Object load(int row);
+
+		protected abstract void ensureCapacity(int capacity);
+
+		protected abstract Vector emptyCopy(int capacity);
+
+		/**
+		 * Copies a value to another (or the same) vector of the same type
+		 */
+		protected abstract void copyValue(int from, Vector target, int to);
+
+		/**
+		 * @return the estimated number of bytes used by this vector
+		 */
+		protected abstract long estimateBytes();
+
+		Object get(int row){
+			if(isNull(row)) return null;
+			return load(row);
+		}
+
+		boolean isNull(int row){
+			return row >= size || nulls.get(row);
+		}
+
+		void set(int row, Object value){
+			grow(row);
+			store(row, value);
+			nulls.clear(row);
+		}
+
+		void setNull(int row){
+			grow(row);
+			nulls.set(row);
+		}
+
+		void copy(int from, Vector target, int to){
+			target.grow(to);
+			if(isNull(from)) target.nulls.set(to);
+			else {
+				copyValue(from, target, to);
+				target.nulls.clear(to);
+			}
+		}
+
+		void truncate(int rows){
+			if(rows >= size) return;
+			nulls.clear(rows, size);
+			size = rows;
+		}
+
+		/**
+		 * Makes sure the row fits and marks any rows skipped as null
+		 */
+		void grow(int row){
+			if(row < size) return;
+			ensureCapacity(row+1);
+			nulls.set(size, row+1);
+			size = row+1;
+		}
+
+		protected static int newCapacity(int current, int required){
+			return Math.max(required, Math.max(INITIAL_CAPACITY, current + (current >> 1)));
+		}
+	}
+
+	private static class LongVector extends Vector {
+
+		private final boolean ints;
+		private long[] values = new long[0];
+
+		private LongVector(boolean ints){
+			this.ints = ints;
+		}
+
+		@Override
+		protected boolean accepts(Object value) {
+			return ints ? value instanceof Integer : value instanceof Long;
+		}
+
+		@Override
+		protected void store(int row, Object value) {
+			values[row] = ((Number)value).longValue();
+		}
+
+		@Override
+		protected Object load(int row) {
+			return ints ? Integer.valueOf((int)values[row]) : Long.valueOf(values[row]);
+		}
+
+		@Override
+		protected void ensureCapacity(int capacity) {
+			if(capacity > values.length) values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+		}
+
+		@Override
+		protected Vector emptyCopy(int capacity) {
+			LongVector copy = new LongVector(ints);
+			copy.ensureCapacity(capacity);
+			return copy;
+		}
+
+		@Override
+		protected void copyValue(int from, Vector target, int to) {
+			((LongVector)target).values[to] = values[from];
+		}
+
+		@Override
+		protected long estimateBytes() {
+			return 8L * values.length + size / 8;
+		}
+	}
+
+	private static class DoubleVector extends Vector {
+
+		private final boolean floats;
+		private double[] values = new double[0];
+
+		private DoubleVector(boolean floats){
+			this.floats = floats;
+		}
+
+		@Override
+		protected boolean accepts(Object value) {
+			return floats ? value instanceof Float : value instanceof Double;
+		}
+
+		@Override
+		protected void store(int row, Object value) {
+			values[row] = ((Number)value).doubleValue();
+		}
+
+		@Override
+		protected Object load(int row) {
+			return floats ? Float.valueOf((float)values[row]) : Double.valueOf(values[row]);
+		}
+
+		@Override
+		protected void ensureCapacity(int capacity) {
+			if(capacity > values.length) values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+		}
+
+		@Override
+		protected Vector emptyCopy(int capacity) {
+			DoubleVector copy = new DoubleVector(floats);
+			copy.ensureCapacity(capacity);
+			return copy;
+		}
+
+		@Override
+		protected void copyValue(int from, Vector target, int to) {
+			((DoubleVector)target).values[to] = values[from];
+		}
+
+		@Override
+		protected long estimateBytes() {
+			return 8L * values.length + size / 8;
+		}
+	}
+
+	/**
+	 * Holds strings as codes into a dictionary of the distinct values seen. Columns with (nearly) unique
+	 * values like _id do not benefit from a dictionary and are turned into an object vector once the
+	 * dictionary grows beyond half the number of rows.
+	 */
+	private static class StringVector extends Vector {
+
+		private static final int MIN_DICTIONARY_CHECK = 1024;
+
+		private int[] codes = new int[0];
+		private List<String> dictionary;
+		private Map<String, Integer> lookup;
+		private long[] dictionaryBytes;
+
+		private StringVector(){
+			this(new ArrayList<String>(), new HashMap<String, Integer>(), new long[1]);
+		}
+
+		private StringVector(List<String> dictionary, Map<String, Integer> lookup, long[] dictionaryBytes){
+			this.dictionary = dictionary;
+			this.lookup = lookup;
+			this.dictionaryBytes = dictionaryBytes;
+		}
+
+		@Override
+		protected boolean accepts(Object value) {
+			if(!(value instanceof String)) return false;
+			return dictionary.size() < MIN_DICTIONARY_CHECK || dictionary.size() < size / 2 || lookup.containsKey(value);
+		}
+
+		@Override
+		protected void store(int row, Object value) {
+			Integer code = lookup.get(value);
+			if(code == null){
+				code = dictionary.size();
+				dictionary.add((String)value);
+				lookup.put((String)value, code);
+				// string, its characters and the dictionary entries pointing to it
+				dictionaryBytes[0] += 80 + 2 * ((String)value).length();
+			}
+			codes[row] = code;
+		}
+
+		@Override
+		protected Object load(int row) {
+			return dictionary.get(codes[row]);
+		}
+
+		@Override
+		protected void ensureCapacity(int capacity) {
+			if(capacity > codes.length) codes = Arrays.copyOf(codes, newCapacity(codes.length, capacity));
+		}
+
+		@Override
+		protected Vector emptyCopy(int capacity) {
+			// the dictionary is shared which keeps codes valid between both vectors
+			StringVector copy = new StringVector(dictionary, lookup, dictionaryBytes);
+			copy.ensureCapacity(capacity);
+			return copy;
+		}
+
+		@Override
+		protected void copyValue(int from, Vector target, int to) {
+			((StringVector)target).codes[to] = codes[from];
+		}
+
+		@Override
+		protected long estimateBytes() {
+			return 4L * codes.length + size / 8 + dictionaryBytes[0];
+		}
+	}
+
+	private static class ObjectVector extends Vector {
+
+		private static final int OBJECT_BYTES = 32;
+
+		private Object[] values = new Object[0];
+
+		private ObjectVector(){}
+
+		/**
+		 * Creates an object vector holding the values of the provided vector
+		 */
+		private ObjectVector(Vector source){
+			ensureCapacity(source.size);
+			for(int row=0; row<source.size; row++){
+				if(source.isNull(row)) setNull(row);
+				else set(row, source.load(row));
+			}
+		}
+
+		@Override
+		protected boolean accepts(Object value) {
+			return true;
+		}
+
+		@Override
+		protected void store(int row, Object value) {
+			values[row] = value;
+		}
+
+		@Override
+		protected Object load(int row) {
+			return values[row];
+		}
+
+		@Override
+		protected void ensureCapacity(int capacity) {
+			if(capacity > values.length) values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+		}
+
+		@Override
+		protected Vector emptyCopy(int capacity) {
+			ObjectVector copy = new ObjectVector();
+			copy.ensureCapacity(capacity);
+			return copy;
+		}
+
+		@Override
+		protected void copyValue(int from, Vector target, int to) {
+			((ObjectVector)target).values[to] = values[from];
+		}
+
+		@Override
+		protected long estimateBytes() {
+			// references plus a rough guess of the size of the objects themselves
+			return 8L * values.length + size / 8 + OBJECT_BYTES * size;
+		}
+	}
+}
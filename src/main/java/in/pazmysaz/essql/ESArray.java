@@ -24,6 +24,10 @@ public class ESArray implements Array {
 		this.array = array;
 	}
 	
+	List<Object> getList(){
+		return array;
+	}
+	
 	@Override
 	public String getBaseTypeName() throws SQLException {
 		if(array != null && array.size() > 0) return array.get(0).getClass().getName();
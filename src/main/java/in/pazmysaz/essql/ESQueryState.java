@@ -5,12 +5,19 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
 
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.slice.SliceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 
 import com.facebook.presto.sql.tree.Explain;
@@ -47,13 +54,22 @@ public class ESQueryState{
 	private SearchRequestBuilder request;
 	private ESResultSet result = null;
 	private SearchResponse esResponse;
+	private SearchPager pager = null;
+	private CompositeAggregationBuilder composite = null;
 	private Heading heading = new Heading();;
 	private IComparison having = null;
 	private List<OrderBy> orderings = new ArrayList<OrderBy>();
 	
 	private int limit = -1;
+	private long totalHits = 0;
+	private long hitsRead = 0;
+	private boolean sliceable = false;
+	private boolean searchAfter;
 	private boolean splitRS;
+	private boolean streamRS;
+	private boolean useLateral = true;
 	private int fetchSize;
+	private int prefetchDepth;
 	private int maxRowsRS = Integer.MAX_VALUE;
 	
 
@@ -69,7 +85,10 @@ public class ESQueryState{
 		this.statement = statement;
 		this.props = statement.getConnection().getClientInfo();
 		this.splitRS = Utils.getBooleanProp(props, Utils.PROP_RESULTS_SPLIT, false);
+		this.streamRS = Utils.getBooleanProp(props, Utils.PROP_RESULTS_STREAM, false);
 		this.fetchSize = Utils.getIntProp(props, Utils.PROP_FETCH_SIZE, 10000);
+		this.prefetchDepth = Utils.getIntProp(props, Utils.PROP_SCROLL_PREFETCH, 1);
+		this.searchAfter = Utils.PAGING_SEARCH_AFTER.equalsIgnoreCase(props.getProperty(Utils.PROP_PAGING_MODE, Utils.PAGING_SCROLL).trim());
 		if(splitRS) maxRowsRS = fetchSize;
 	}
 	
@@ -81,15 +100,27 @@ public class ESQueryState{
 	 * @return 
 	 * @throws SQLException
 	 */
-	@SuppressWarnings("unchecked")
 	public void buildRequest(String sql, QueryBody query, String... indices) throws SQLException {
-		if(this.esResponse != null && this.esResponse.getScrollId() != null){
-			client.prepareClearScroll().addScrollId(this.esResponse.getScrollId()).execute();
-		}
+		this.buildRequest(sql, query, (Object[])null, indices);
+	}
+	
+	/**
+	 * Builds the Elasticsearch query to be executed on the specified indexes binding the provided values to the 
+	 * parameters (?) of the query. This function refreshes the state after which it is not possible to retrieve 
+	 * results for any previously build queries. 
+	 * @param sql
+	 * @param query
+	 * @param parameters the values of the parameters in order of their position, may be null
+	 * @param indices
+	 * @throws SQLException
+	 */
+	@SuppressWarnings("unchecked")
+	public void buildRequest(String sql, QueryBody query, Object[] parameters, String... indices) throws SQLException {
+		clearScroll();
 		// ToDo: Check indices after parse
 
 		Map<String, Map<String, Integer>> esInfo = (Map<String, Map<String, Integer>>)Utils.getObjectProperty(props, Utils.PROP_TABLE_COLUMN_MAP);
-		ParseResult parseResult =  parser.parse(sql, query, maxRowsRS, this.statement.getConnection().getClientInfo(), esInfo);
+		ParseResult parseResult =  parser.parse(sql, query, parameters, maxRowsRS, this.statement.getConnection().getClientInfo(), esInfo);
 		List<String> sqlIndices = new ArrayList<>();
 		//List<String> types = new ArrayList<>();
 		for (QuerySource source : parseResult.getSources()) {
@@ -130,23 +161,39 @@ public class ESQueryState{
 		SearchRequestBuilder req = searchReq.setTypes(types);
 		
 		// add filters and aggregations
+		this.composite = info.getAggregation() instanceof CompositeAggregationBuilder ? (CompositeAggregationBuilder)info.getAggregation() : null;
 		if(info.getAggregation() != null){
 			// when aggregating the query must be a query and not a filter
 			if(info.getQuery() != null)	req.setQuery(info.getQuery());
 			req.addAggregation(info.getAggregation());
 			
-		// ordering does not work on aggregations (has to be done in client)
+		// ordering of aggregations is done in client (possibly after ES ordered the buckets, see GroupParser)
 		}else if(info.getQuery() != null){
 			if(info.getRequestScore()) req.setQuery(info.getQuery()); // use query instead of filter to get a score
 			else req.setPostFilter(info.getQuery());
-			
+		} else req.setQuery(QueryBuilders.matchAllQuery());
+		
+		if(info.getAggregation() == null){
 			// add order
 			for(OrderBy ob : info.getSorts()){
 				req.addSort(ob.getField(), ob.getOrder());
 			}
-		} else req.setQuery(QueryBuilders.matchAllQuery());
+			
+			// only fetch the parts of the source needed to fill the selected columns
+			String[] includes = hitParser.getSourceIncludes(info.getHeading());
+			if(includes != null){
+				if(includes.length == 0) req.setFetchSource(false);
+				else if(useDocValues(includes, info.getSources())){
+					// read all the fields from doc values and skip loading and parsing the source
+					req.setFetchSource(false);
+					for(String field : includes) req.addDocValueField(field);
+				}
+				else req.setFetchSource(includes, null);
+			}
+		}
 		
 		this.limit = info.getLimit();
+		this.sliceable = false;
 		if(splitRS) maxRowsRS = fetchSize;
 		
 		//System.out.println("fetch: "+fetchSize+" limit: "+limit+" split: "+splitRS);
@@ -157,10 +204,17 @@ public class ESQueryState{
 		} else{
 			if(limit > 0 && limit < fetchSize){ // no scroll needed
 				req.setSize(limit);
+			} else if(searchAfter){ // page using search_after on the requested sort with _id as tiebreaker
+				req.setSize(fetchSize);
+				req.setTrackTotalHits(true);
+				req.addSort("_id", SortOrder.ASC);
 			} else{ // use scrolling
 				req.setSize(fetchSize);
 				req.setScroll(new TimeValue(Utils.getIntProp(props, Utils.PROP_SCROLL_TIMEOUT_SEC, 60)*1000));
-				if (info.getSorts().isEmpty()) req.addSort("_doc", SortOrder.ASC); // scroll works fast with sort on _doc
+				if (info.getSorts().isEmpty()) {
+					req.addSort("_doc", SortOrder.ASC); // scroll works fast with sort on _doc
+					sliceable = true; // unordered results can be read using multiple slices
+				}
 			}
 		}
 		
@@ -169,6 +223,26 @@ public class ESQueryState{
 		req.setTimeout(TimeValue.timeValueMillis(Utils.getIntProp(props, Utils.PROP_QUERY_TIMEOUT_MS, 10000)));
 	}
 	
+	/**
+	 * Checks if all the fields can be read from doc values for all the sources queried. This requires the
+	 * {@link Utils#PROP_DOCVALUE_FIELDS} property to be set and the doc values information loaded by the connection.
+	 * @param fields
+	 * @param sources
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean useDocValues(String[] fields, List<QuerySource> sources){
+		if(!Utils.getBooleanProp(props, Utils.PROP_DOCVALUE_FIELDS, false) || sources.isEmpty()) return false;
+		Map<String, Set<String>> docValueInfo = (Map<String, Set<String>>)Utils.getObjectProperty(props, Utils.PROP_TABLE_DOCVALUE_MAP);
+		if(docValueInfo == null) return false;
+		for(QuerySource source : sources){
+			Set<String> docValueFields = docValueInfo.get(source.getSource());
+			if(docValueFields == null) return false;
+			for(String field : fields) if(!docValueFields.contains(field)) return false;
+		}
+		return true;
+	}
+	
 	/**
 	 * Builds the request defined within the explain statement and returns its string representation
 	 * @param sql
@@ -201,9 +275,7 @@ public class ESQueryState{
 	 * @throws SQLException
 	 */
 	ResultSet execute(boolean useLateral) throws SQLException{
-		if(request == null) throw new SQLException("Unable to execute query because it has not correctly been parsed");
-		//System.out.println(request);
-		this.esResponse = this.request.execute().actionGet();
+		executeRequest(useLateral);
 		//System.out.println(esResponse);
 		ESResultSet rs = convertResponse(useLateral);
 		if(rs == null) throw new SQLException("No result found for this query");
@@ -212,6 +284,145 @@ public class ESQueryState{
 		return this.result;
 	}
 
+	/**
+	 * Used by {@link ESUpdateState} to execute the filter of the current request within the cluster (by query)
+	 * @return the search request built for the last parsed query
+	 * @throws SQLException
+	 */
+	SearchRequest getRequest() throws SQLException{
+		if(request == null) throw new SQLException("Unable to execute query because it has not correctly been parsed");
+		return request.request();
+	}
+
+	/**
+	 * Checks if the documents selected by the current request can be copied using their source as is. This
+	 * is the case for searches that do not aggregate and only select fields from the source (without aliases,
+	 * calculations or functions) which are not read from doc values.
+	 * @return
+	 */
+	boolean selectsSource(){
+		if(request == null || composite != null || request.request().source().aggregations() != null) return false;
+		FetchSourceContext fetchSource = request.request().source().fetchSource();
+		if(fetchSource != null && !fetchSource.fetchSource()) return false;
+		for(Column col : heading.columns()){
+			if(col.hasCalculation() || col.getOp() != Operation.NONE || col.getAlias() != null) return false;
+			if(col.getColumn().startsWith("_")) return false; // _id, _index, _type and _score are not part of the source
+		}
+		return true;
+	}
+
+	/**
+	 * Used by {@link ESUpdateState} to execute the current request and read its hits without converting them
+	 * into a resultset. The next pages are read using {@link #nextHits()} and are fetched in the background
+	 * (see {@link ScrollPrefetcher}) while the hits of the current page are being processed.
+	 * @return the hits of the first page or null if the query did not match any documents
+	 * @throws SQLException
+	 */
+	SearchHit[] executeHits() throws SQLException{
+		executeRequest(false);
+		if(this.result != null) this.result.close();
+		this.result = null;
+		this.hitsRead = 0;
+		SearchHit[] hits = limitHits(esResponse.getHits().getHits());
+		return hits.length > 0 ? hits : nextHits();
+	}
+
+	/**
+	 * Returns the hits of the next page of the request executed by {@link #executeHits()}
+	 * @return the hits or null if all hits have been read
+	 * @throws SQLException
+	 */
+	SearchHit[] nextHits() throws SQLException{
+		while(esResponse != null && (limit <= 0 || hitsRead < limit)){
+			SearchResponse page = nextPage();
+			if(page == null || page.getHits().getHits().length == 0) return null;
+			esResponse = page;
+			SearchHit[] hits = limitHits(page.getHits().getHits());
+			if(hits.length > 0) return hits;
+		}
+		return null;
+	}
+
+	/**
+	 * Drops the hits beyond the limit of the query (if any)
+	 */
+	private SearchHit[] limitHits(SearchHit[] hits){
+		if(limit > 0 && hitsRead + hits.length > limit) hits = Arrays.copyOf(hits, (int)Math.max(0, limit - hitsRead));
+		hitsRead += hits.length;
+		return hits;
+	}
+
+	/**
+	 * Executes the current request and starts paging through its results (if needed)
+	 * @param useLateral
+	 * @throws SQLException
+	 */
+	private void executeRequest(boolean useLateral) throws SQLException{
+		if(request == null) throw new SQLException("Unable to execute query because it has not correctly been parsed");
+		//System.out.println(request);
+		clearScroll();
+		if(composite != null) composite.aggregateAfter(null); // start at the first page of buckets
+		int slices = sliceable ? getSliceCount() : 1;
+		List<SearchResponse> responses = slices > 1 ? executeSliced(slices) : Collections.singletonList(this.request.execute().actionGet());
+		this.esResponse = responses.get(0);
+		this.useLateral = useLateral;
+		this.totalHits = 0;
+		for(SearchResponse response : responses) totalHits += response.getHits().getTotalHits().value;
+		long maxHits = limit > 0 ? Math.min(totalHits, limit) : totalHits;
+		if(esResponse.getScrollId() != null && (prefetchDepth > 0 || responses.size() > 1)){
+			// start fetching the next pages while the first one is being parsed
+			ScrollPrefetcher prefetcher = new ScrollPrefetcher(client, responses, scrollTimeout(), prefetchDepth, maxHits).start();
+			this.pager = prefetcher;
+			SearchResponse first = prefetcher.next();
+			if(first != null) esResponse = first;
+		}else if(searchAfter && esResponse.getAggregations() == null && esResponse.getHits().getHits().length < maxHits){
+			this.pager = new SearchAfterPager(client, request.request(), esResponse, maxHits, prefetchDepth > 0);
+		}
+	}
+
+	/**
+	 * Executes the current request as a sliced scroll using the specified number of slices. All slices
+	 * are executed concurrently and the first response of each slice is returned.
+	 * @param slices
+	 * @return
+	 * @throws SQLException
+	 */
+	private List<SearchResponse> executeSliced(int slices) throws SQLException {
+		List<ActionFuture<SearchResponse>> futures = new ArrayList<ActionFuture<SearchResponse>>(slices);
+		for(int i=0; i<slices; i++){
+			SearchRequest sliceReq = new SearchRequest(request.request());
+			sliceReq.source(request.request().source().shallowCopy().slice(new SliceBuilder(i, slices)));
+			futures.add(client.search(sliceReq));
+		}
+		List<SearchResponse> responses = new ArrayList<SearchResponse>(slices);
+		try{
+			for(ActionFuture<SearchResponse> future : futures) responses.add(future.actionGet());
+		}catch(Exception e){
+			for(SearchResponse response : responses)
+				if(response.getScrollId() != null) client.prepareClearScroll().addScrollId(response.getScrollId()).execute();
+			throw new SQLException("Unable to execute sliced scroll due to: "+e.getMessage(), e);
+		}
+		return responses;
+	}
+	
+	/**
+	 * Determines the number of slices to use for scrolling based on the {@link Utils#PROP_SCROLL_SLICES} property.
+	 * The value 'auto' uses the number of shards the request is executed on.
+	 * @return the number of slices to use, 1 means no slicing
+	 */
+	private int getSliceCount() {
+		String slices = props.getProperty(Utils.PROP_SCROLL_SLICES);
+		if(slices == null) return 1;
+		if(slices.trim().equalsIgnoreCase("auto")){
+			try{
+				return client.admin().cluster().prepareSearchShards(request.request().indices()).get().getGroups().length;
+			}catch(Exception e){
+				return 1;
+			}
+		}
+		return Utils.getIntProp(props, Utils.PROP_SCROLL_SLICES, 1);
+	}
+	
 	/**
 	 * Parses the result from ES and converts it into an ESResultSet object
 	 * @return
@@ -219,39 +430,60 @@ public class ESQueryState{
 	 */
 	private ESResultSet convertResponse(boolean useLateral) throws SQLException{
 		if(esResponse.getHits().getHits().length == 0 && esResponse.getScrollId() != null){
-			esResponse = client.prepareSearchScroll(esResponse.getScrollId())
-					.setScroll(new TimeValue(Utils.getIntProp(props, Utils.PROP_SCROLL_TIMEOUT_SEC, 60)*1000))
-					.execute().actionGet();
+			SearchResponse page = nextPage();
+			if(page != null) esResponse = page;
 		}
 		// parse aggregated result
-		if(esResponse.getAggregations() != null){
+		if(esResponse.getAggregations() != null && composite != null && streamRS && having == null && orderings.isEmpty()){
+			// buckets are already ordered by key so only the first page is parsed, the resultset fetches the next ones
+			ESResultSet rs = new ESResultSet(this, limit > 0 ? limit : Long.MAX_VALUE).setStreaming(true);
+			for(Aggregation agg : esResponse.getAggregations()){
+				aggParser.parseAggregation(agg, rs);
+			}
+			rs.executeComputations();
+			return rs;
+		}else if(esResponse.getAggregations() != null){
 			ESResultSet rs = new ESResultSet(this);
 			for(Aggregation agg : esResponse.getAggregations()){
 				aggParser.parseAggregation(agg, rs);
 			}
+			// read all pages of a composite aggregation, stopping at the limit when rows are not filtered or reordered
+			while((limit < 0 || having != null || !orderings.isEmpty() || rs.getNrRows() < limit) && nextCompositePage()){
+				for(Aggregation agg : esResponse.getAggregations()){
+					aggParser.parseAggregation(agg, rs);
+				}
+			}
 			if(rs.getNrRows() == 0) return null;
 			if(having != null) rs.filterHaving(having);
 			rs.setTotal(rs.getNrRows());
 			if(!orderings.isEmpty()){
-				rs.orderBy(orderings);
+				rs.orderBy(orderings, limit);
 			}
 			if(this.limit > -1) rs.limit(limit);
 			rs.executeComputations();
 			return rs;
 		}else{
 			// parse plain document hits
-			long total = esResponse.getHits().getTotalHits().value;
+			long total = totalHits;
 			if(limit > 0) total = Math.min(total, limit);
-			ESResultSet rs = hitParser.parse(esResponse.getHits(), this.statement, this.heading, total, Utils.getIntProp(props, Utils.PROP_DEFAULT_ROW_LENGTH, 1000), useLateral, 0, null);
+			if(streamRS){
+				// only parse the first page, the resultset fetches the next pages while it is being read
+				ESResultSet rs = new ESResultSet(this, total).setStreaming(true);
+				hitParser.parse(esResponse.getHits(), this.statement, this.heading, total, Utils.getIntProp(props, Utils.PROP_DEFAULT_ROW_LENGTH, 1000), useLateral, 0, rs);
+				rs.executeComputations();
+				return rs;
+			}
+			// created here so the resultset uses the memory budget set for this connection
+			ESResultSet rs = hitParser.parse(esResponse.getHits(), this.statement, this.heading, total, Utils.getIntProp(props, Utils.PROP_DEFAULT_ROW_LENGTH, 1000), useLateral, 0, new ESResultSet(this, total));
 			
 			while(rs.rowCount() < Math.min(maxRowsRS, rs.getTotal() - rs.getOffset())){
 				// keep adding data to the resultset as long as there are more results available
-				esResponse = client.prepareSearchScroll(esResponse.getScrollId())
-						.setScroll(new TimeValue(Utils.getIntProp(props, Utils.PROP_SCROLL_TIMEOUT_SEC, 60)*1000))
-						.execute().actionGet();
+				SearchResponse page = nextPage();
+				if(page == null || page.getHits().getHits().length == 0) break;
+				esResponse = page;
 				rs = hitParser.parse(esResponse.getHits(), this.statement, this.heading, total, Utils.getIntProp(props, Utils.PROP_DEFAULT_ROW_LENGTH, 1000), useLateral, 0, rs);
 				// make sure the resultset does not contain more results than requested 
-				rs.setTotal(Math.min(esResponse.getHits().getTotalHits().value, limit>0 ? limit : esResponse.getHits().getTotalHits().value));
+				rs.setTotal(limit > 0 ? Math.min(totalHits, limit) : totalHits);
 				
 			}			
 			
@@ -260,20 +492,96 @@ public class ESQueryState{
 		}
 	}
 	
+	/**
+	 * Replaces the rows held by a streaming {@link ESResultSet} with the next page of results using the
+	 * scroll of the last executed request. Only a single page is kept in memory which keeps the heap
+	 * used by the resultset bounded by the fetch size instead of the size of the result.
+	 * @param rs the streaming resultset to load the next page into
+	 * @return true if the next page was loaded, false if all results have been read
+	 * @throws SQLException
+	 */
+	boolean fetchNextPage(ESResultSet rs) throws SQLException {
+		if(rs != result || esResponse == null) return false;
+		if(rs.getOffset() + rs.getNrRows() >= rs.getTotal()) return false;
+		if(composite != null){
+			if(!nextCompositePage()) return false;
+			rs.nextPage();
+			for(Aggregation agg : esResponse.getAggregations()){
+				aggParser.parseAggregation(agg, rs);
+			}
+			rs.executeComputations();
+			return rs.getNrRows() > 0;
+		}
+		SearchResponse page = nextPage();
+		if(page == null || page.getHits().getHits().length == 0) return false;
+		esResponse = page;
+		rs.nextPage();
+		hitParser.parse(esResponse.getHits(), this.statement, this.heading, rs.getTotal(), Utils.getIntProp(props, Utils.PROP_DEFAULT_ROW_LENGTH, 1000), useLateral, 0, rs);
+		rs.executeComputations();
+		return rs.getNrRows() > 0;
+	}
+	
+	/**
+	 * Requests the page of buckets following the last one received for the composite aggregation of the
+	 * current request (if any) and makes it the current response
+	 * @return true if the next page was fetched, false if the last page has already been received
+	 * @throws SQLException
+	 */
+	private boolean nextCompositePage() throws SQLException {
+		if(composite == null || esResponse == null || esResponse.getAggregations() == null) return false;
+		CompositeAggregation page = esResponse.getAggregations().get(composite.getName());
+		if(page == null || page.afterKey() == null || page.getBuckets().size() < composite.size()) return false;
+		composite.aggregateAfter(page.afterKey());
+		try{
+			esResponse = request.execute().actionGet();
+		}catch(Exception e){
+			throw new SQLException("Unable to fetch next page of groups due to: "+e.getMessage(), e);
+		}
+		return true;
+	}
+	
 	public ResultSet moreResults(boolean useLateral) throws SQLException {
+		if(streamRS) return null; // a streaming resultset already provides access to all results
 		if(result != null && result.getOffset() + result.getNrRows() >= result.getTotal()) return null;
 		if(result != null) result.close();
-		if(esResponse.getScrollId() != null ){
-			esResponse = client.prepareSearchScroll(esResponse.getScrollId())
-					.setScroll(new TimeValue(Utils.getIntProp(props, Utils.PROP_SCROLL_TIMEOUT_SEC, 60)*1000))
-					.execute().actionGet();
-			ESResultSet rs = convertResponse(useLateral);
-			rs.setOffset(result.getOffset() + result.getNrRows());
-			if(rs.getNrRows() == 0) return null;
-			result = rs;
-			return result;
-		}
-		return null;
+		SearchResponse page = nextPage();
+		if(page == null) return null;
+		esResponse = page;
+		ESResultSet rs = convertResponse(useLateral);
+		rs.setOffset(result.getOffset() + result.getNrRows());
+		if(rs.getNrRows() == 0) return null;
+		result = rs;
+		return result;
+	}
+	
+	/**
+	 * Fetches the next page of the current request, either from the {@link SearchPager} or 
+	 * synchronously from the scroll when prefetching has been disabled
+	 * @return the next page or null if no more pages are available
+	 * @throws SQLException
+	 */
+	private SearchResponse nextPage() throws SQLException {
+		if(pager != null) return pager.next();
+		if(esResponse == null || esResponse.getScrollId() == null) return null;
+		return client.prepareSearchScroll(esResponse.getScrollId()).setScroll(scrollTimeout()).execute().actionGet();
+	}
+	
+	/**
+	 * Stops any prefetching and releases the scroll context of the last executed request (if any)
+	 */
+	private void clearScroll() {
+		List<String> scrollIds = new ArrayList<String>();
+		if(pager != null){
+			pager.close();
+			if(pager instanceof ScrollPrefetcher) scrollIds.addAll(((ScrollPrefetcher)pager).getScrollIds());
+			pager = null;
+		}else if(esResponse != null && esResponse.getScrollId() != null) scrollIds.add(esResponse.getScrollId());
+		if(!scrollIds.isEmpty()) client.prepareClearScroll().setScrollIds(scrollIds).execute();
+		esResponse = null;
+	}
+	
+	private TimeValue scrollTimeout(){
+		return new TimeValue(Utils.getIntProp(props, Utils.PROP_SCROLL_TIMEOUT_SEC, 60)*1000);
 	}
 	
 	public Heading getHeading() {
@@ -285,9 +593,7 @@ public class ESQueryState{
 	}
 
 	public void close() throws SQLException {
-		if(this.esResponse != null && this.esResponse.getScrollId() != null){
-			client.prepareClearScroll().addScrollId(this.esResponse.getScrollId()).execute();
-		}
+		clearScroll();
 		if(this.result != null) result.close();
 	}
 
@@ -24,8 +24,8 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
@@ -40,7 +40,7 @@ import in.pazmysaz.essql.model.expression.IComparison;
 
 public class ESResultSet implements ResultSet {
 
-	private List<List<Object>> rows = new ArrayList<List<Object>>();
+	private ColumnStore rows = new ColumnStore();
 	private Heading heading;
 	private Statement statement;
 	private int cursor = -1;
@@ -48,6 +48,7 @@ public class ESResultSet implements ResultSet {
 	private long total;
 	private long offset = 0;
 	private int defaultRowLength = 1000;
+	private boolean streaming = false;
 
 	public ESResultSet(ESQueryState req){
 		this.heading = req.getHeading();
@@ -55,6 +56,7 @@ public class ESResultSet implements ResultSet {
 		this.statement = req.getStatement();
 		this.total = 0;
 		this.defaultRowLength = req.getIntProp(Utils.PROP_DEFAULT_ROW_LENGTH, 1000);
+		this.rows = new ColumnStore(req.getIntProp(Utils.PROP_RESULTS_MEMORY_MB, 0) * 1024L * 1024L);
 	}
 	
 	public ESResultSet(Heading heading, int total, int defaultRowLength){
@@ -76,6 +78,7 @@ public class ESResultSet implements ResultSet {
 		this.statement = req.getStatement();
 		this.total = total;
 		this.defaultRowLength = req.getIntProp(Utils.PROP_DEFAULT_ROW_LENGTH, 1000);
+		this.rows = new ColumnStore(req.getIntProp(Utils.PROP_RESULTS_MEMORY_MB, 0) * 1024L * 1024L);
 	}
 	
 	public ESResultSet(ESQueryState req, long offset, long total){
@@ -93,7 +96,8 @@ public class ESResultSet implements ResultSet {
 			if(h.isVisible() ) sb.append(h.getLabel()+", ");
 		}
 		sb.append("\r\n");
-		for(List<Object> row : rows){
+		for(int i=0; i<rows.size(); i++){
+			List<Object> row = rows.row(i);
 			for(Column h : heading.columns()){
 				Object o = h.getIndex() >= row.size() ? null : row.get(h.getIndex());
 				if(h.isVisible() ) sb.append((o instanceof ResultSet ? "\r\n" : "")+o+(o instanceof ResultSet ? "\r\n" : ", "));
@@ -105,7 +109,8 @@ public class ESResultSet implements ResultSet {
 	
 	/**
 	 * Creates a new row for this resultset with proper initial capacity (if known) and initialized with NULL's. 
-	 * The row still needs to be added to the resultset!
+	 * The row still needs to be added to the resultset which copies its values into the column store
+	 * backing this resultset. Changes made to the row after it has been added are not reflected.
 	 * @return
 	 */
 	public List<Object> getNewRow(){
@@ -114,7 +119,7 @@ public class ESResultSet implements ResultSet {
 	}
 	
 	public void add(List<Object> row) {
-		rows.add(row.subList(0, heading.getColumnCount()));
+		rows.add(row, heading.getColumnCount());
 		if(rows.size() > total) total = rows.size(); // can happen when rows are being exploded
 	}
 	
@@ -122,12 +127,26 @@ public class ESResultSet implements ResultSet {
 		return rows.size();
 	}
 	
+	/**
+	 * Returns a view on the row with the provided index. Values set on the view are written to this resultset. 
+	 * @param index
+	 * @return
+	 */
 	public List<Object> getRow(int index){
-		return this.rows.get(index);
+		return this.rows.row(index);
 	}
 	
 	public void orderBy(List<OrderBy> order){
-		Collections.sort(rows, new ResultRowComparator(order));
+		rows.sort(new ResultRowComparator(order));
+	}
+	
+	/**
+	 * Orders the rows and keeps only the first limit rows. Only the rows within the limit are sorted.
+	 * @param order
+	 * @param limit the number of rows to keep or -1 to keep all of them
+	 */
+	public void orderBy(List<OrderBy> order, int limit){
+		rows.sort(new ResultRowComparator(order), limit);
 	}
 	
 	public int getNrRows(){
@@ -146,8 +165,18 @@ public class ESResultSet implements ResultSet {
 		return this.offset;
 	}
 	
+	/**
+	 * Drops all rows held by this resultset and moves the offset past them. Used to replace the page
+	 * that has been read by the next one when this resultset is streaming.
+	 */
+	void nextPage(){
+		this.offset += rows.size();
+		this.rows.clear();
+		this.cursor = -1;
+	}
+	
 	public void limit(int limit){
-		if(rows.size() > limit) rows = rows.subList(0, limit);
+		rows.truncate(limit);
 	}
 	
 	/**
@@ -156,12 +185,11 @@ public class ESResultSet implements ResultSet {
 	 * @throws SQLException
 	 */
 	public void filterHaving(IComparison having) throws SQLException{
+		BitSet keep = new BitSet(rows.size());
 		for(int i=0; i<rows.size(); i++){
-			if(!having.evaluate(rows.get(i))){
-				rows.remove(i);
-				i--;
-			}
+			if(having.evaluate(rows.row(i))) keep.set(i);
 		}
+		rows.retain(keep);
 		this.total = rows.size();
 	}
 	
@@ -180,7 +208,7 @@ public class ESResultSet implements ResultSet {
 			for(Column column : heading.columns()){
 				if(column.hasCalculation()) {
 					Number value = column.getCalculation().evaluate(this, i);
-					rows.get(i).set(column.getIndex(), value);
+					rows.set(i, column.getIndex(), value);
 				}
 			}
 		}
@@ -198,6 +226,7 @@ public class ESResultSet implements ResultSet {
 
 	@Override
 	public boolean next() throws SQLException {
+		if(streaming && cursor + 1 >= rows.size() && !req.fetchNextPage(this)) return false;
 		if(cursor + 1 < rows.size() && offset + cursor + 1 < total){
 			cursor ++;
 			return true;
@@ -206,7 +235,9 @@ public class ESResultSet implements ResultSet {
 	}
 
 	@Override
-	public void close() throws SQLException {	}
+	public void close() throws SQLException {
+		rows.close();
+	}
 
 	@Override
 	public boolean wasNull() throws SQLException {
@@ -216,8 +247,16 @@ public class ESResultSet implements ResultSet {
 
 	private Object getForColumn(int columnIdx) throws SQLException{
 		Integer idx = heading.getIndexForColumn(columnIdx);
-		if(idx >= rows.get(cursor).size()) return null;
-		return rows.get(cursor).get(idx);
+		return rows.get(cursor, idx);
+	}
+	
+	/**
+	 * Returns the index of the column in the store if its values are held as primitive numbers
+	 * or -1 if the value must be read as an object.
+	 */
+	private int getNumericIndex(int columnIdx) throws SQLException{
+		int idx = heading.getIndexForColumn(columnIdx);
+		return rows.isNumeric(cursor, idx) ? idx : -1;
 	}
 	
 	@Override
@@ -267,6 +306,8 @@ public class ESResultSet implements ResultSet {
 
 	@Override
 	public short getShort(int columnIndex) throws SQLException {
+		int idx = getNumericIndex(columnIndex);
+		if(idx >= 0) return (short)rows.getLong(cursor, idx);
 		Object value = getForColumn(columnIndex);
 		if(value == null) return 0;
 		try{
@@ -278,6 +319,8 @@ public class ESResultSet implements ResultSet {
 
 	@Override
 	public int getInt(int columnIndex) throws SQLException {
+		int idx = getNumericIndex(columnIndex);
+		if(idx >= 0) return (int)rows.getLong(cursor, idx);
 		Object value = getForColumn(columnIndex);
 		if(value == null) return 0;
 		try{
@@ -289,6 +332,8 @@ public class ESResultSet implements ResultSet {
 
 	@Override
 	public long getLong(int columnIndex) throws SQLException {
+		int idx = getNumericIndex(columnIndex);
+		if(idx >= 0) return rows.getLong(cursor, idx);
 		Object value = getForColumn(columnIndex);
 		if(value == null) return 0;
 		try{
@@ -300,6 +345,8 @@ public class ESResultSet implements ResultSet {
 
 	@Override
 	public float getFloat(int columnIndex) throws SQLException {
+		int idx = getNumericIndex(columnIndex);
+		if(idx >= 0) return (float)rows.getDouble(cursor, idx);
 		Object value = getForColumn(columnIndex);
 		if(value == null) return 0;
 		try{
@@ -311,6 +358,8 @@ public class ESResultSet implements ResultSet {
 
 	@Override
 	public double getDouble(int columnIndex) throws SQLException {
+		int idx = getNumericIndex(columnIndex);
+		if(idx >= 0) return rows.getDouble(cursor, idx);
 		Object value = getForColumn(columnIndex);
 		if(value == null) return 0;
 		try{
@@ -669,6 +718,7 @@ public class ESResultSet implements ResultSet {
 
 	@Override
 	public int getType() throws SQLException {
+		if(streaming) return ResultSet.TYPE_FORWARD_ONLY;
 		return ResultSet.TYPE_SCROLL_INSENSITIVE;
 	}
 
@@ -1382,16 +1432,23 @@ public class ESResultSet implements ResultSet {
 		public int compare(List<Object> rr1, List<Object> rr2) {
 			int res = 0;
 			for(OrderBy ob : order) try{
-				// order NULL values last
+				// order NULL values last, two NULL values are equal
 				Object o1 = rr1.get(ob.getIndex());
-				if(o1 == null ) return ob.func();
 				Object o2 = rr2.get(ob.getIndex());
-				if(o2 == null )return ob.func() * -1;
+				if(o1 == null && o2 == null) continue;
+				if(o1 == null) return ob.func();
+				if(o2 == null) return ob.func() * -1;
 				
+				res = 0;
 				if(o1 instanceof String){
 					res = ((String)o1).compareTo((String)o2); 
 				}else if(o1 instanceof Number){
 					res = Double.compare(((Number) o1).doubleValue(), ((Number) o2).doubleValue());
+				}else if(o1 instanceof java.util.Date){
+					// compare on time to be able to mix Timestamps and Dates
+					res = Long.compare(((java.util.Date)o1).getTime(), ((java.util.Date)o2).getTime());
+				}else if(o1 instanceof Comparable){
+					res = compareValues((Comparable<?>)o1, o2);
 				}
 				if(res != 0) return ob.func() * res;
 			}catch(Exception e){
@@ -1400,6 +1457,11 @@ public class ESResultSet implements ResultSet {
 			return res;
 		}
 		
+		@SuppressWarnings("unchecked")
+		private static <T> int compareValues(Comparable<T> o1, Object o2){
+			return o1.compareTo((T)o2);
+		}
+		
 	}
 
 	public ESResultSet setOffset(long offset) {
@@ -1407,4 +1469,19 @@ public class ESResultSet implements ResultSet {
 		return this;
 	}
 
+	/**
+	 * Indicates that this resultset only holds a single page of the results and fetches the next page
+	 * from its {@link ESQueryState} when the cursor moves past the last row of the current page.
+	 * @param streaming
+	 * @return
+	 */
+	public ESResultSet setStreaming(boolean streaming) {
+		this.streaming = streaming && req != null;
+		return this;
+	}
+
+	public boolean isStreaming(){
+		return streaming;
+	}
+
 }
@@ -1,35 +1,48 @@
 package in.pazmysaz.essql;
 
 import java.sql.Array;
+import java.sql.BatchUpdateException;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.elasticsearch.action.ActionType;
 import org.elasticsearch.action.admin.indices.alias.get.GetAliasesResponse;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.delete.DeleteRequest;
-import org.elasticsearch.action.delete.DeleteRequestBuilder;
 import org.elasticsearch.action.index.IndexRequest;
-import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
-import org.elasticsearch.action.update.UpdateRequest;
-import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.metadata.AliasMetadata;
 import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.AbstractBulkByScrollRequest;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryAction;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.index.reindex.ScrollableHitSource;
+import org.elasticsearch.index.reindex.UpdateByQueryAction;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
 
 import com.carrotsearch.hppc.cursors.ObjectCursor;
 import com.facebook.presto.sql.parser.SqlParser;
@@ -51,6 +64,8 @@ import com.facebook.presto.sql.tree.QueryBody;
 import com.facebook.presto.sql.tree.QuerySpecification;
 import com.facebook.presto.sql.tree.StringLiteral;
 import com.facebook.presto.sql.tree.TableElement;
+import com.facebook.presto.sql.tree.TimeLiteral;
+import com.facebook.presto.sql.tree.TimestampLiteral;
 import com.facebook.presto.sql.tree.Values;
 
 import in.pazmysaz.essql.model.BasicQueryState;
@@ -59,6 +74,7 @@ import in.pazmysaz.essql.model.Heading;
 import in.pazmysaz.essql.model.QuerySource;
 import in.pazmysaz.essql.model.Utils;
 import in.pazmysaz.essql.parse.sql.RelationParser;
+import in.pazmysaz.essql.parse.sql.ScriptParser;
 import in.pazmysaz.essql.parse.sql.SelectParser;
 import in.pazmysaz.essql.parse.sql.UpdateParser;
 import in.pazmysaz.essql.parse.sql.WhereParser;
@@ -115,48 +131,18 @@ public class ESUpdateState {
 	public int execute(String sql, Insert insert, String index) throws SQLException{
 		if(insert.getQuery().getQueryBody() instanceof Values){
 			// parse one or multiple value sets (... VALUES (1,2,'a'), (2,4,'b'), ...)
-			return this.insertFromValues(sql, insert, index, Utils.getIntProp(props, Utils.PROP_FETCH_SIZE, 2500));
+			return this.insertFromValues(sql, insert, index);
 		}else if(insert.getQuery().getQueryBody() instanceof QuerySpecification){
 			// insert data based on a SELECT statement
-			return this.insertFromSelect(sql, insert, index, Utils.getIntProp(props, Utils.PROP_FETCH_SIZE, 2500));
+			return this.insertFromSelect(sql, insert, index);
 		}else throw new SQLException("Unknown set of values to insert ("+insert.getQuery().getQueryBody()+")");
 		
 	}
 	
 	/**
-	 * Executes the list with requests as a bulk with maximum number of requests per bulk
-	 * @param requests
-	 * @param maxRequestsPerBulk
-	 * @return
-	 * @throws SQLException
-	 */
-	private int execute(List<?> requests, int maxRequestsPerBulk) throws SQLException{
-		int result = 0;
-		BulkRequestBuilder bulkReq = client.prepareBulk();
-		for(Object req : requests){
-			if(req instanceof IndexRequest)	bulkReq.add((IndexRequest)req);
-			else if(req instanceof UpdateRequest) bulkReq.add((UpdateRequest)req);
-			else if(req instanceof DeleteRequest) bulkReq.add((DeleteRequest)req);
-			else if(req instanceof IndexRequestBuilder) bulkReq.add((IndexRequestBuilder)req);
-			else if(req instanceof UpdateRequestBuilder) bulkReq.add((UpdateRequestBuilder)req);
-			else if(req instanceof DeleteRequestBuilder) bulkReq.add((DeleteRequestBuilder)req);
-			else throw new SQLException("Type "+req.getClass()+" cannot be added to a bulk request");
-			
-			if(bulkReq.numberOfActions() > maxRequestsPerBulk){
-				result += bulkReq.get().getItems().length;
-				bulkReq = client.prepareBulk();
-			}
-		}
-		
-		if(bulkReq.numberOfActions() > 0){
-			result += bulkReq.get().getItems().length;
-		}
-		return result;
-	}
-	
-	
-	/**
-	 * Creates a set of indexrequests based on the result of a query
+	 * Creates a set of indexrequests based on the result of a query which are executed through a {@link BulkPipeline}.
+	 * Documents are copied using their source when the query allows it (see {@link #copySources(String, String)}),
+	 * otherwise each row of the (nested) resultset is converted into a source.
 	 * @param sql
 	 * @param insert
 	 * @param index
@@ -164,11 +150,12 @@ public class ESUpdateState {
 	 * @throws SQLException
 	 */
 	@SuppressWarnings("unchecked")
-	private int insertFromSelect(String sql, Insert insert, String index, int maxRequestsPerBulk) throws SQLException {
+	private int insertFromSelect(String sql, Insert insert, String index) throws SQLException {
 		queryState.buildRequest(sql, insert.getQuery().getQueryBody(), index);
 		String[] indexAndType = this.getIndexAndType(insert.getTarget().toString(), sql, "into\\s+", "\\s+select", index);
 		index = indexAndType[0];
 		String type = indexAndType[1];
+		if(queryState.selectsSource()) return copySources(index, type);
 		
 		// execute query using nested resultsets
 		ResultSet rs = queryState.execute(false);
@@ -176,53 +163,77 @@ public class ESUpdateState {
 
 		// read the resultset (recursively if nested)
 		HashMap<String, Object> fieldValues = new HashMap<String, Object>();
-		List<IndexRequestBuilder> indexReqs = new ArrayList<IndexRequestBuilder>();
-		int indexCount = 0;
-		while(rs != null){
-			while(rs.next()){
-				for(Column col : headingToInsert.columns()){
-					String label = col.getLabel();
-					Object value = rs.getObject(label);
-					if(value == null) continue;
-					Map<String, Object> nested = fieldValues;
-					if(label.contains(".")){
-						String[] parts = label.split("\\.");
-						for(int i=0; i<parts.length-1; i++){
-							String part = parts[i];
-							if(!nested.containsKey(part)) nested.put(part, new HashMap<String, Object>());
-							nested = (Map<String, Object>)nested.get(part);
+		BulkPipeline bulk = new BulkPipeline(client, props);
+		try{
+			while(rs != null){
+				while(rs.next()){
+					for(Column col : headingToInsert.columns()){
+						String label = col.getLabel();
+						Object value = rs.getObject(label);
+						if(value == null) continue;
+						Map<String, Object> nested = fieldValues;
+						if(label.contains(".")){
+							String[] parts = label.split("\\.");
+							for(int i=0; i<parts.length-1; i++){
+								String part = parts[i];
+								if(!nested.containsKey(part)) nested.put(part, new HashMap<String, Object>());
+								nested = (Map<String, Object>)nested.get(part);
+							}
+							label = parts[parts.length - 1];
 						}
-						label = parts[parts.length - 1];
-					}
 					
-					if(value instanceof ResultSet){
-						value = buildSource((ResultSet)value);
-					}else if(value instanceof Array){
-						Object[] arrayVal = (Object[])((Array)value).getArray();
-						if(arrayVal.length > 0 && arrayVal[0] instanceof ResultSet){
-							for(int i=0; i<arrayVal.length; i++){
-								arrayVal[i] = buildSource((ResultSet)arrayVal[i]); 
+						if(value instanceof ResultSet){
+							value = buildSource((ResultSet)value);
+						}else if(value instanceof Array){
+							Object[] arrayVal = (Object[])((Array)value).getArray();
+							if(arrayVal.length > 0 && arrayVal[0] instanceof ResultSet){
+								for(int i=0; i<arrayVal.length; i++){
+									arrayVal[i] = buildSource((ResultSet)arrayVal[i]); 
+								}
 							}
+							value = arrayVal;
 						}
-						value = arrayVal;
+						nested.put(label, value);
 					}
-					nested.put(label, value);
+					bulk.add(client.prepareIndex().setIndex(index)
+							.setType(type)
+							.setSource(fieldValues).request());
+					fieldValues = new HashMap<String, Object>();
 				}
-				IndexRequestBuilder indexReq = client.prepareIndex().setIndex(index)
-						.setType(type)
-						.setSource(fieldValues);
-				indexReqs.add(indexReq);
-				if(indexReqs.size() >= maxRequestsPerBulk){
-					indexCount += this.execute(indexReqs, maxRequestsPerBulk);
-					indexReqs.clear();
+				rs.close();
+				rs = queryState.moreResults(false);
+			}
+			return bulk.finish();
+		}finally{
+			bulk.close();
+		}
+	}
+	
+	/**
+	 * Indexes the source of every document selected by the query state without converting the hits into a resultset.
+	 * The next page of hits is fetched while the bulk pipeline indexes the current one so scrolling and indexing overlap,
+	 * both stages hold a bounded number of pages and bulks which blocks the one running ahead.
+	 * @param index
+	 * @param type
+	 * @return the number of documents indexed
+	 * @throws SQLException
+	 */
+	private int copySources(String index, String type) throws SQLException{
+		BulkPipeline bulk = new BulkPipeline(client, props);
+		try{
+			for(SearchHit[] hits = queryState.executeHits(); hits != null; hits = queryState.nextHits()){
+				for(SearchHit hit : hits){
+					IndexRequest request = new IndexRequest(index).type(type);
+					BytesReference source = hit.getSourceRef();
+					if(source == null) request.source(Collections.<String, Object>emptyMap());
+					else request.source(source, XContentHelper.xContentType(source));
+					bulk.add(request);
 				}
-				fieldValues = new HashMap<String, Object>();
 			}
-			rs.close();
-			rs = queryState.moreResults(false);
+			return bulk.finish();
+		}finally{
+			bulk.close();
 		}
-		if(indexReqs.size() > 0) indexCount += this.execute(indexReqs, maxRequestsPerBulk);
-		return indexCount;
 	}
 	
 	/**
@@ -232,8 +243,26 @@ public class ESUpdateState {
 	 * @return
 	 * @throws SQLException
 	 */
-	@SuppressWarnings("unchecked")
-	private int insertFromValues(String sql, Insert insert, String index, int maxRequestsPerBulk) throws SQLException {
+	private int insertFromValues(String sql, Insert insert, String index) throws SQLException {
+		InsertTemplate template = this.prepare(sql, insert, index);
+		BulkPipeline bulk = new BulkPipeline(client, props);
+		try{
+			for(int row=0; row<template.rows(); row++) bulk.add(template.bind(row, null));
+			return bulk.finish();
+		}finally{
+			bulk.close();
+		}
+	}
+	
+	/**
+	 * Parses an INSERT ... VALUES statement (possibly containing parameters) into a template
+	 * @param sql
+	 * @param insert
+	 * @param index
+	 * @return
+	 * @throws SQLException
+	 */
+	private InsertTemplate prepare(String sql, Insert insert, String index) throws SQLException {
 		Heading heading = new Heading();
 		QueryState state = new BasicQueryState(sql, heading, this.props);
 		List<Object> values = updateParser.parse(insert, state);
@@ -241,59 +270,58 @@ public class ESUpdateState {
 		if(heading.hasLabel("_index") || heading.hasLabel("_type")) throw new SQLException("Not possible to set _index and _type fields");
 
 		String[] indexAndType = this.getIndexAndType(insert.getTarget().toString(), sql, "into\\s+", "\\s+values", index);
-		index = indexAndType[0];
-		String type = indexAndType[1];
-		
-		if(values.size() % heading.getColumnCount() != 0) throw new SQLException("Number of columns does not match number of values for one of the inserts");
-		
-		List<IndexRequestBuilder> indexReqs = new ArrayList<IndexRequestBuilder>();
-		int indexCount = 0;
-		int valueIdx = 0;
-		while(valueIdx < values.size()){
-			HashMap<String, Object> fieldValues = new HashMap<String, Object>();
-			String id = null;
-			for(Column col : heading.columns()){
-				Object value = values.get(valueIdx);
-				valueIdx++;
-				
-				if(col.getColumn().equals("_id")){
-					id = value.toString();
-					continue;
-				}
-				
-				if(col.getColumn().indexOf('.') == -1) {
-					fieldValues.put(col.getColumn(), value);
-					continue;
-				}
-					
-				// create nested object
-				Map<String, Object> map = fieldValues; 
-				String[] objectDef = col.getColumn().split("\\.");
-				for(int k=0; k<objectDef.length; k++){
-					String key = objectDef[k];
-					if(k == objectDef.length-1) map.put(key, value);
-					else{
-						if(!map.containsKey(key)) map.put(key, new HashMap<String, Object>());
-							map = (Map<String, Object>)map.get(key);
-					}
-				}
-			}
-			
-			// create index request
-			IndexRequestBuilder indexReq = client.prepareIndex().setIndex(index).setType(type);
-			if(id != null) indexReq.setId(id);
-			indexReq.setSource(fieldValues);
-			indexReqs.add(indexReq);
-			if(indexReqs.size() >= maxRequestsPerBulk){
-				indexCount += this.execute(indexReqs, maxRequestsPerBulk);
-				indexReqs.clear();
+		return new InsertTemplate(indexAndType[0], indexAndType[1], heading, values);
+	}
+	
+	/**
+	 * Parses the prepared statement into an {@link InsertTemplate} if it is an INSERT ... VALUES statement
+	 * @param sql the statement using ? for its parameters
+	 * @param index
+	 * @return the template or null if the statement is not an INSERT ... VALUES statement
+	 * @throws SQLException
+	 */
+	public InsertTemplate prepareInsert(String sql, String index) throws SQLException {
+		if(!sql.trim().toLowerCase().startsWith("insert")) return null;
+		com.facebook.presto.sql.tree.Statement st;
+		try{
+			st = new SqlParser().createStatement(sql);
+		}catch(Exception e){
+			return null;
+		}
+		if(!(st instanceof Insert) || !(((Insert)st).getQuery().getQueryBody() instanceof Values)) return null;
+		return this.prepare(sql, (Insert)st, index);
+	}
+	
+	/**
+	 * Executes the template for each of the parameter sets through a {@link BulkPipeline}
+	 * @param template
+	 * @param parameterSets
+	 * @return the number of documents indexed for each parameter set
+	 * @throws BatchUpdateException if indexing failed for any of the parameter sets, its update counts 
+	 * contain {@link Statement#EXECUTE_FAILED} for these parameter sets
+	 */
+	public int[] executeBatch(InsertTemplate template, List<Object[]> parameterSets) throws SQLException {
+		// check all parameter sets before any of them is executed
+		for(int i=0; i<parameterSets.size(); i++){
+			Object[] params = parameterSets.get(i);
+			if((params == null ? 0 : params.length) < template.parameters()) 
+				throw new BatchUpdateException("No value specified for parameter "+template.parameters()+" of parameter set "+(i+1), new int[0]);
+		}
+		BulkPipeline bulk = new BulkPipeline(client, props);
+		try{
+			for(int i=0; i<parameterSets.size(); i++){
+				for(int row=0; row<template.rows(); row++) bulk.add(template.bind(row, parameterSets.get(i)), i);
 			}
+			bulk.finish();
+			return bulk.getCounts(parameterSets.size());
+		}catch(SQLException e){
+			BatchUpdateException bue = new BatchUpdateException(e.getMessage(), bulk.getCounts(parameterSets.size()), e);
+			if(e.getNextException() != null) bue.setNextException(e.getNextException());
+			throw bue;
+		}finally{
+			bulk.close();
 		}
-		if(indexReqs.size() > 0)  indexCount += this.execute(indexReqs, maxRequestsPerBulk);
-		return indexCount;
 	}
-		
-
 	
 	/**
 	 * Converts a ResultSet into a (nested) Map to be used as a source within an Index operation.
@@ -398,14 +426,10 @@ public class ESUpdateState {
 
 	// ---------------------------------------[ DELETE ]-----------------------------------------
 	/**
-	 * Deletes documents from elasticsearch using the predicate provided in the query. This request is 
-	 * executed in atleast two steps:
-	 * <ol>
-	 * <li>fetch document _id's that match the query</li>
-	 * <li>add deletion of each id to a bulk request</li>
-	 * <li>execute bulk request when it contains fetch.size items (see {@link Utils}) and continue</li>
-	 * <li>execute bulk when all _id's have been added</li>
-	 * </ol>
+	 * Deletes documents from elasticsearch using the predicate provided in the query. The WHERE clause is 
+	 * parsed into a query which is executed as a delete_by_query within the cluster, the documents to delete are
+	 * not fetched by the client. See {@link #executeByQuery(ActionType, AbstractBulkByScrollRequest)} for the
+	 * properties used to configure its execution.
 	 * @param sql
 	 * @param delete
 	 * @param index
@@ -413,10 +437,10 @@ public class ESUpdateState {
 	 * @throws SQLException
 	 */
 	public int execute(String sql, Delete delete, String index) throws SQLException {
-		return delete(sql, delete, index, Utils.getIntProp(props, Utils.PROP_FETCH_SIZE, 2500));
+		return delete(sql, delete, index);
 	}
 	
-	private int delete(String sql, Delete delete, String index, int maxRequestsPerBulk) throws SQLException{
+	private int delete(String sql, Delete delete, String index) throws SQLException{
 		String type = delete.getTable().getName().toString();
 		String select = "SELECT _id FROM "+type;
 		if(delete.getWhere().isPresent()){
@@ -425,22 +449,67 @@ public class ESUpdateState {
 		
 		Query query = (Query)new SqlParser().createStatement(select);
 		this.queryState.buildRequest(select, query.getQueryBody(), index);
-		ResultSet rs = this.queryState.execute();
-		List<DeleteRequestBuilder> requests = new ArrayList<DeleteRequestBuilder>();
-		int deleteCount = 0;
-		while(rs != null){
-			while(rs.next()){
-				requests.add(client.prepareDelete(index, type, rs.getString("_id")));
-				if(requests.size() >= maxRequestsPerBulk){
-					deleteCount = this.execute(requests, maxRequestsPerBulk);
-					requests.clear();
-				}
-			}
-			rs.close();
-			rs = queryState.moreResults(true);
+		SearchRequest search = this.queryState.getRequest();
+		DeleteByQueryRequest request = new DeleteByQueryRequest(search.indices())
+				.setQuery(getFilter(search))
+				.setDocTypes(search.types());
+		return (int)executeByQuery(DeleteByQueryAction.INSTANCE, request).getDeleted();
+	}
+	
+	/**
+	 * Returns the filter of the search request which selects the documents matching the WHERE clause
+	 */
+	private static QueryBuilder getFilter(SearchRequest request){
+		SearchSourceBuilder source = request.source();
+		if(source.postFilter() != null) return source.postFilter();
+		if(source.query() != null) return source.query();
+		return QueryBuilders.matchAllQuery();
+	}
+	
+	/**
+	 * Executes a by query request (delete or update) within the cluster and waits for it to finish. The request
+	 * is configured using the following properties:
+	 * <ul>
+	 * <li>{@link Utils#PROP_BYQUERY_SLICES}: the number of slices to execute in parallel, 'auto' (default) 
+	 * uses one slice per shard</li>
+	 * <li>{@link Utils#PROP_BYQUERY_REQUESTS_PER_SECOND}: throttles the execution to the number of documents 
+	 * per second (unlimited by default)</li>
+	 * <li>{@link Utils#PROP_BYQUERY_CONFLICTS}: 'abort' (default) fails on version conflicts, 'proceed' skips 
+	 * documents that changed while the request was executed</li>
+	 * </ul>
+	 * @param action
+	 * @param request
+	 * @return the response of the request
+	 * @throws SQLException if the request could not be executed or failed for some of the documents
+	 */
+	private BulkByScrollResponse executeByQuery(ActionType<BulkByScrollResponse> action, AbstractBulkByScrollRequest<?> request) throws SQLException{
+		BulkByScrollResponse response;
+		try{
+			request.setSlices(Math.max(AbstractBulkByScrollRequest.AUTO_SLICES, Utils.getIntProp(props, Utils.PROP_BYQUERY_SLICES, AbstractBulkByScrollRequest.AUTO_SLICES)));
+			int requestsPerSecond = Utils.getIntProp(props, Utils.PROP_BYQUERY_REQUESTS_PER_SECOND, -1);
+			if(requestsPerSecond > 0) request.setRequestsPerSecond(requestsPerSecond);
+			request.setConflicts(props.getProperty(Utils.PROP_BYQUERY_CONFLICTS, "abort").trim().toLowerCase());
+			response = client.execute(action, request).actionGet();
+		}catch(Exception e){
+			throw new SQLException("Unable to execute "+action.name()+" due to: "+e.getMessage(), e);
+		}
+		
+		List<String> failures = new ArrayList<String>();
+		for(BulkItemResponse.Failure failure : response.getBulkFailures()){
+			failures.add("'"+failure.getIndex()+"/"+failure.getId()+"' failed: "+failure.getMessage());
+		}
+		for(ScrollableHitSource.SearchFailure failure : response.getSearchFailures()){
+			failures.add("search on '"+failure.getIndex()+"' failed: "+failure.getReason().getMessage());
 		}
-		if(requests.size() > 0) deleteCount = this.execute(requests, maxRequestsPerBulk);
-		return deleteCount;
+		if(response.isTimedOut()) failures.add("request timed out");
+		if(response.getReasonCancelled() != null) failures.add("request was cancelled: "+response.getReasonCancelled());
+		if(!failures.isEmpty()){
+			SQLException e = new SQLException("Execution of "+action.name()+" failed after processing "+response.getTotal()+
+					" documents, first failure: "+failures.get(0));
+			for(String failure : failures) e.setNextException(new SQLException(failure));
+			throw e;
+		}
+		return response;
 	}
 
 	// ------------------------------------[ CREATE TABLE / VIEW ]--------------------------------------
@@ -525,9 +594,7 @@ public class ESUpdateState {
 	 * @throws SQLException
 	 */
 	public int execute(String sql, CreateTableAsSelect createAsSelect, String index) throws SQLException {
-        throw new SQLException("Not yet supported");
-/*
-	    if(!createAsSelect.isWithData()) throw new SQLException("Not yet possible to create table as select without data (create emtpy table, "
+		if(!createAsSelect.isWithData()) throw new SQLException("Not yet possible to create table as select without data (create emtpy table, "
 				+ "insert data and delete it will have the same effect");
 		// first create the index
 		SqlParser parser = new SqlParser();
@@ -550,7 +617,6 @@ public class ESUpdateState {
 		int res = this.execute(insertSql, insert, index);
 		this.statement.getConnection().getTypeMap(); // trigger a reload of the table&column set for the connection
 		return res;
-*/
 	}
 
 	/**
@@ -642,6 +708,15 @@ public class ESUpdateState {
 		return 0;
 	}
 	
+	/**
+	 * Executes an UPDATE statement. The SET clause is compiled into a painless script (see {@link ScriptParser})
+	 * which is executed as an update_by_query on the documents matching the WHERE clause, configured in the same 
+	 * way as a delete (see {@link #executeByQuery(ActionType, AbstractBulkByScrollRequest)}). When the SET clause
+	 * cannot be compiled the _id's of the matching documents are fetched and updated by the client.
+	 * @param update
+	 * @return the number of updated documents
+	 * @throws SQLException
+	 */
 	@SuppressWarnings("unchecked")
 	public int execute(String update) throws SQLException {
 		Matcher matcher = updateRegex.matcher(update);
@@ -655,16 +730,38 @@ public class ESUpdateState {
 			type = matcher.group(2);
 		}
 		
-		// get fields and values to update
+		// get fields and expressions to update
 		try{
-			Map<String, Object> fieldValues = new HashMap<String, Object>();
+			Map<String, Expression> assignments = new LinkedHashMap<String, Expression>();
 			SqlParser parser = new SqlParser();
 			String[] parts = matcher.group(3).replaceAll(",\\s*([\"|\\w|\\.]+\\s*=)", "<-SPLIT->$1").split("<-SPLIT->");
 			for(String p : parts){
 				ComparisonExpression comparison = (ComparisonExpression) parser.createExpression(p);
 				String field = comparison.getLeft().toString().replaceAll("\"", "");
 				field = Heading.findOriginal(matcher.group(3), field, "", "\\s*=");
-				Object value = getLiteralValue(comparison.getRight());
+				assignments.put(field, comparison.getRight());
+			}
+			
+			String select = "SELECT _id FROM "+type+" WHERE "+matcher.group(4);
+			Query query = (Query)new SqlParser().createStatement(select);
+			this.queryState.buildRequest(select, query.getQueryBody(), index);
+			
+			// update the documents within the cluster
+			Script script = new ScriptParser(matcher.group(3)).parse(assignments);
+			if(script != null){
+				SearchRequest search = this.queryState.getRequest();
+				UpdateByQueryRequest request = new UpdateByQueryRequest(search.indices())
+						.setQuery(getFilter(search))
+						.setDocTypes(search.types());
+				request.setScript(script);
+				return (int)executeByQuery(UpdateByQueryAction.INSTANCE, request).getUpdated();
+			}
+			
+			// set the literal values using the client
+			Map<String, Object> fieldValues = new HashMap<String, Object>();
+			for(Map.Entry<String, Expression> assignment : assignments.entrySet()){
+				String field = assignment.getKey();
+				Object value = getLiteralValue(assignment.getValue());
 				
 				if(field.indexOf('.') == -1) {
 					fieldValues.put(field, value);
@@ -686,32 +783,23 @@ public class ESUpdateState {
 			}
 			
 			// get ID's for documents to be updated
-		
-			String select = "SELECT _id FROM "+type+" WHERE "+matcher.group(4);
-			Query query = (Query)new SqlParser().createStatement(select);
-			this.queryState.buildRequest(select, query.getQueryBody(), index);
 			ResultSet rs = this.queryState.execute();
 			
 			// execute updates in batch mode based on id's returned
-			int maxRequestsPerBulk = Utils.getIntProp(props, Utils.PROP_FETCH_SIZE, 2500);
-			List<UpdateRequestBuilder> indexReqs = new ArrayList<UpdateRequestBuilder>();
-			int updateCount = 0;
-			while(rs != null){
-				while(rs.next()){
-					String id = rs.getString(1);
-					indexReqs.add(
-						client.prepareUpdate(index, type, id).setDoc(fieldValues)
-					);
-					if(indexReqs.size() >= maxRequestsPerBulk){
-						updateCount += this.execute(indexReqs, maxRequestsPerBulk);
-						indexReqs.clear();
+			BulkPipeline bulk = new BulkPipeline(client, props);
+			try{
+				while(rs != null){
+					while(rs.next()){
+						String id = rs.getString(1);
+						bulk.add(client.prepareUpdate(index, type, id).setDoc(fieldValues).request());
 					}
+					rs.close();
+					rs = queryState.moreResults(true);
 				}
-				rs.close();
-				rs = queryState.moreResults(true);
+				return bulk.finish();
+			}finally{
+				bulk.close();
 			}
-			if(indexReqs.size() > 0)  updateCount += this.execute(indexReqs, maxRequestsPerBulk);
-			return updateCount;
 		}catch(Exception e){
 			throw new SQLException("Unable to execute UPDATE due to "+e.getMessage(),e);
 		}
@@ -723,6 +811,8 @@ public class ESUpdateState {
 		else if(expression instanceof BooleanLiteral) return ((BooleanLiteral)expression).getValue();
 		else if(expression instanceof DoubleLiteral) return ((DoubleLiteral)expression).getValue();
 		else if(expression instanceof StringLiteral) return ((StringLiteral)expression).getValue();
+		else if(expression instanceof TimeLiteral) return ((TimeLiteral)expression).getValue();
+		else if(expression instanceof TimestampLiteral) return ((TimestampLiteral)expression).getValue();
 		throw new SQLException("Unsupported literal type: "+expression);
 	}
 	
@@ -0,0 +1,116 @@
+package in.pazmysaz.essql;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.action.index.IndexRequest;
+
+import com.facebook.presto.sql.tree.Parameter;
+
+import in.pazmysaz.essql.model.Column;
+import in.pazmysaz.essql.model.Heading;
+
+/**
+ * The parsed rows of an INSERT ... VALUES statement which are turned into index requests. Values are either
+ * literals or parameters (?) of a prepared statement which are bound to the values of a parameter set when the
+ * requests are created. This allows a prepared insert to be parsed once and executed for any number of parameter
+ * sets without building and parsing an SQL statement for each of them.
+ *
+ * @author cversloot
+ *
+ */
+public class InsertTemplate {
+
+	private final String index;
+	private final String type;
+	private final Column[] columns;
+	private final Object[] values;
+	private final int parameters;
+
+	/**
+	 * @param index
+	 * @param type
+	 * @param heading the columns to insert
+	 * @param values the values of all rows (one after another) which are literals or {@link Parameter}s
+	 * @throws SQLException if the number of values does not match the number of columns
+	 */
+	InsertTemplate(String index, String type, Heading heading, List<Object> values) throws SQLException{
+		List<Column> cols = new ArrayList<Column>(heading.getColumnCount());
+		for(Column col : heading.columns()) cols.add(col);
+		if(cols.isEmpty() || values.size() % cols.size() != 0) throw new SQLException("Number of columns does not match number of values for one of the inserts");
+		this.index = index;
+		this.type = type;
+		this.columns = cols.toArray(new Column[cols.size()]);
+		this.values = values.toArray();
+		int parameters = 0;
+		for(Object value : values){
+			if(value instanceof Parameter) parameters = Math.max(parameters, ((Parameter)value).getPosition() + 1);
+		}
+		this.parameters = parameters;
+	}
+
+	/**
+	 * @return the number of rows inserted by this template
+	 */
+	public int rows(){
+		return values.length / columns.length;
+	}
+
+	/**
+	 * @return the number of parameters which must be provided to create the requests of this template
+	 */
+	public int parameters(){
+		return parameters;
+	}
+
+	/**
+	 * Creates the index request for a row of this template
+	 * @param row
+	 * @param params the values of the parameters in order of their position, may be null if the template has no parameters
+	 * @return
+	 * @throws SQLException if no value has been provided for one of the parameters
+	 */
+	@SuppressWarnings("unchecked")
+	public IndexRequest bind(int row, Object[] params) throws SQLException{
+		Map<String, Object> fieldValues = new HashMap<String, Object>();
+		String id = null;
+		for(int i=0; i<columns.length; i++){
+			Object value = values[row * columns.length + i];
+			if(value instanceof Parameter){
+				int position = ((Parameter)value).getPosition();
+				if(params == null || position >= params.length) throw new SQLException("No value specified for parameter "+(position+1));
+				value = params[position];
+			}
+
+			String field = columns[i].getColumn();
+			if(field.equals("_id")){
+				if(value != null) id = value.toString();
+				continue;
+			}
+
+			if(field.indexOf('.') == -1) {
+				fieldValues.put(field, value);
+				continue;
+			}
+
+			// create nested object
+			Map<String, Object> map = fieldValues;
+			String[] objectDef = field.split("\\.");
+			for(int k=0; k<objectDef.length; k++){
+				String key = objectDef[k];
+				if(k == objectDef.length-1) map.put(key, value);
+				else{
+					if(!map.containsKey(key)) map.put(key, new HashMap<String, Object>());
+					map = (Map<String, Object>)map.get(key);
+				}
+			}
+		}
+
+		IndexRequest request = new IndexRequest(index).type(type).source(fieldValues);
+		if(id != null) request.id(id);
+		return request;
+	}
+}
@@ -0,0 +1,170 @@
+package in.pazmysaz.essql;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Reads ahead on one or more scrolls by requesting the next page asynchronously as soon as the previous
+ * one arrived. At most depth pages per scroll are buffered which means the network round-trip for the next
+ * page overlaps with the parsing and iteration of the current one while memory use stays bounded.
+ * Pages of a single scroll are requested one after another because a scroll does not support concurrent
+ * requests. When multiple scrolls are provided (sliced scroll) these are read concurrently and their pages
+ * are returned in the order in which they arrive.
+ *
+ * @author cversloot
+ *
+ */
+public class ScrollPrefetcher implements SearchPager {
+
+	private final Client client;
+	private final TimeValue keepAlive;
+	private final int capacity;
+	private final long maxHits;
+	private final List<Slice> slices = new ArrayList<Slice>();
+	private final Deque<SearchResponse> pages = new ArrayDeque<SearchResponse>();
+
+	private long hitsFetched = 0;
+	private int inFlight = 0;
+	private boolean closed = false;
+	private Exception failure = null;
+
+	/**
+	 * Creates a prefetcher reading the scrolls started by the provided responses. The hits within the
+	 * initial responses are buffered and returned by {@link #next()} before any subsequent page.
+	 * @param client
+	 * @param initial the responses of the initial search request for each of the scrolls
+	 * @param keepAlive the scroll timeout to use for subsequent requests
+	 * @param depth the maximum number of pages to buffer per scroll
+	 * @param maxHits the number of hits (over all scrolls) after which no more pages are requested
+	 */
+	public ScrollPrefetcher(Client client, List<SearchResponse> initial, TimeValue keepAlive, int depth, long maxHits){
+		this.client = client;
+		this.keepAlive = keepAlive;
+		this.capacity = Math.max(1, depth) * initial.size();
+		this.maxHits = maxHits;
+		for(SearchResponse response : initial){
+			Slice slice = new Slice(response.getScrollId(), response.getHits().getTotalHits().value);
+			slices.add(slice);
+			slice.received(response);
+		}
+	}
+
+	/**
+	 * Starts fetching pages in the background
+	 * @return this prefetcher
+	 */
+	public synchronized ScrollPrefetcher start(){
+		fill();
+		return this;
+	}
+
+	/**
+	 * Returns the next page, waiting for it to arrive if it has not been fetched yet
+	 * @return the next page or null if all scrolls have been exhausted
+	 * @throws SQLException if fetching a page failed or the thread was interrupted while waiting
+	 */
+	@Override
+	public synchronized SearchResponse next() throws SQLException{
+		fill();
+		while(pages.isEmpty() && inFlight > 0 && failure == null){
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for the next page of results", e);
+			}
+		}
+		if(failure != null) throw new SQLException("Unable to fetch next page of results due to: "+failure.getMessage(), failure);
+		SearchResponse page = pages.poll();
+		if(page != null) fill();
+		return page;
+	}
+
+	/**
+	 * @return the most recent scroll id of every scroll which must be used to clear them
+	 */
+	public synchronized List<String> getScrollIds(){
+		List<String> ids = new ArrayList<String>();
+		for(Slice slice : slices) if(slice.scrollId != null) ids.add(slice.scrollId);
+		return ids;
+	}
+
+	/**
+	 * Stops requesting new pages and drops the pages buffered so far
+	 */
+	@Override
+	public synchronized void close(){
+		closed = true;
+		pages.clear();
+	}
+
+	/**
+	 * Requests the next page for every scroll that has no request in flight as long as the buffer is not full
+	 */
+	private void fill(){
+		if(closed || failure != null) return;
+		for(Slice slice : slices){
+			if(hitsFetched >= maxHits || pages.size() + inFlight >= capacity) return;
+			if(slice.inFlight || slice.done || slice.scrollId == null) continue;
+			slice.inFlight = true;
+			inFlight++;
+			client.prepareSearchScroll(slice.scrollId).setScroll(keepAlive).execute(slice);
+		}
+	}
+
+	/**
+	 * State of a single scroll read by this prefetcher
+	 */
+	private class Slice implements ActionListener<SearchResponse>{
+
+		private String scrollId;
+		private final long total;
+		private long fetched = 0;
+		private boolean inFlight = false;
+		private boolean done = false;
+
+		private Slice(String scrollId, long total){
+			this.scrollId = scrollId;
+			this.total = total;
+		}
+
+		private void received(SearchResponse response){
+			if(response.getScrollId() != null) scrollId = response.getScrollId();
+			int hits = response.getHits().getHits().length;
+			fetched += hits;
+			hitsFetched += hits;
+			if(hits == 0 || fetched >= total) done = true;
+			if(hits > 0 && !closed) pages.add(response);
+		}
+
+		@Override
+		public void onResponse(SearchResponse response) {
+			synchronized (ScrollPrefetcher.this) {
+				inFlight = false;
+				ScrollPrefetcher.this.inFlight--;
+				received(response);
+				fill();
+				ScrollPrefetcher.this.notifyAll();
+			}
+		}
+
+		@Override
+		public void onFailure(Exception e) {
+			synchronized (ScrollPrefetcher.this) {
+				inFlight = false;
+				ScrollPrefetcher.this.inFlight--;
+				done = true;
+				if(!closed) failure = e;
+				ScrollPrefetcher.this.notifyAll();
+			}
+		}
+	}
+}
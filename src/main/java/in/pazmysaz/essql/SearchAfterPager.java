@@ -0,0 +1,90 @@
+package in.pazmysaz.essql;
+
+import java.sql.SQLException;
+
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * Pages through the results of a sorted search request using search_after instead of a scroll. Each page
+ * is a regular search request starting after the sort values of the last hit read, which means no search
+ * context is kept open on the data nodes between pages and a failed page can simply be requested again.
+ * The request used must have a sort ending with a unique tiebreaker (like _id).
+ * 
+ * @author cversloot
+ *
+ */
+public class SearchAfterPager implements SearchPager {
+
+	private final Client client;
+	private final SearchRequest template;
+	private final int pageSize;
+	private final long maxHits;
+	private final boolean prefetch;
+	
+	private long hitsFetched;
+	private Object[] searchAfter;
+	private ActionFuture<SearchResponse> pending = null;
+	private boolean done = false;
+	
+	/**
+	 * Creates a pager continuing the results of the provided response
+	 * @param client
+	 * @param template the request that produced the first page
+	 * @param first the response of the initial search request (already consumed by the caller)
+	 * @param maxHits the number of hits after which no more pages are requested
+	 * @param prefetch request the next page as soon as a page has been returned
+	 */
+	public SearchAfterPager(Client client, SearchRequest template, SearchResponse first, long maxHits, boolean prefetch){
+		this.client = client;
+		this.template = template;
+		this.pageSize = template.source().size();
+		this.maxHits = maxHits;
+		this.prefetch = prefetch;
+		this.hitsFetched = 0;
+		received(first.getHits().getHits());
+	}
+	
+	@Override
+	public SearchResponse next() throws SQLException {
+		if(done) return null;
+		SearchResponse page;
+		try{
+			page = (pending != null ? pending : request()).actionGet();
+		}catch(Exception e){
+			// pages do not depend on server side state so the page can simply be requested again
+			try{
+				page = request().actionGet();
+			}catch(Exception e2){
+				throw new SQLException("Unable to fetch next page of results due to: "+e2.getMessage(), e2);
+			}
+		}
+		pending = null;
+		received(page.getHits().getHits());
+		if(page.getHits().getHits().length == 0) return null;
+		if(!done && prefetch) pending = request();
+		return page;
+	}
+	
+	@Override
+	public void close() {
+		done = true;
+		pending = null;
+	}
+	
+	private void received(SearchHit[] hits){
+		hitsFetched += hits.length;
+		if(hits.length > 0) searchAfter = hits[hits.length-1].getSortValues();
+		if(hits.length < pageSize || hitsFetched >= maxHits || searchAfter == null) done = true;
+	}
+	
+	private ActionFuture<SearchResponse> request(){
+		SearchRequest req = new SearchRequest(template);
+		// total hits are only needed (and calculated) for the first page
+		req.source(template.source().shallowCopy().searchAfter(searchAfter).trackTotalHits(false));
+		return client.search(req);
+	}
+}
@@ -0,0 +1,27 @@
+package in.pazmysaz.essql;
+
+import java.sql.SQLException;
+
+import org.elasticsearch.action.search.SearchResponse;
+
+/**
+ * Provides the subsequent pages of a search request whose results do not fit within a single response. 
+ * 
+ * @author cversloot
+ *
+ */
+public interface SearchPager {
+
+	/**
+	 * Returns the next page of results, waiting for it to arrive if needed
+	 * @return the next page or null if all pages have been read
+	 * @throws SQLException
+	 */
+	public SearchResponse next() throws SQLException;
+	
+	/**
+	 * Stops fetching pages and releases any pages held by this pager
+	 */
+	public void close();
+	
+}
@@ -0,0 +1,218 @@
+package in.pazmysaz.essql;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Temporary file holding rows spilled from a {@link ColumnStore}. The file is memory mapped in chunks and
+ * rows are written one after another, each row as a count followed by its tagged values. The offset of every
+ * row is kept on the heap which allows single rows to be read (and rewritten) at random. Rewriting a row
+ * appends it to the end of the file, the space used by its previous version is not reused.
+ *
+ * Only nulls, numbers, booleans, strings, timestamps (with millisecond precision) and arrays of those can be spilled. Rows containing other values
+ * (like nested resultsets) are rejected by {@link #append(List, int)} and must stay on the heap.
+ *
+ * @author cversloot
+ *
+ */
+class SpillFile implements Closeable {
+
+	private static final int CHUNK_SIZE = 32 * 1024 * 1024;
+
+	private static final byte NULL = 0;
+	private static final byte LONG = 1;
+	private static final byte INTEGER = 2;
+	private static final byte DOUBLE = 3;
+	private static final byte FLOAT = 4;
+	private static final byte STRING = 5;
+	private static final byte TRUE = 6;
+	private static final byte FALSE = 7;
+	private static final byte SHORT = 8;
+	private static final byte BYTE = 9;
+	private static final byte ARRAY = 10;
+	private static final byte TIMESTAMP = 11;
+
+	private final Path path;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+	private ByteBuffer buffer = ByteBuffer.allocate(1024);
+	private long[] offsets = new long[1024];
+	private int rows = 0;
+	private long position = 0;
+
+	SpillFile() throws IOException {
+		this.path = Files.createTempFile("essql", ".spill");
+		this.path.toFile().deleteOnExit();
+		this.file = new RandomAccessFile(path.toFile(), "rw");
+		this.channel = file.getChannel();
+	}
+
+	/**
+	 * @return the number of rows in this file
+	 */
+	public int rows(){
+		return rows;
+	}
+
+	/**
+	 * Appends the first columns values of the row to this file.
+	 * @return false if the row contains values which can not be spilled in which case nothing is written
+	 * @throws IOException
+	 */
+	public boolean append(List<Object> row, int columns) throws IOException{
+		if(!encode(row, columns)) return false;
+		if(rows == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		offsets[rows++] = write();
+		return true;
+	}
+
+	/**
+	 * Replaces a row by writing its new values to the end of this file
+	 * @return false if the row contains values which can not be spilled in which case nothing is written
+	 * @throws IOException
+	 */
+	public boolean rewrite(int row, List<Object> values) throws IOException{
+		if(!encode(values, values.size())) return false;
+		offsets[row] = write();
+		return true;
+	}
+
+	/**
+	 * Reads a row from this file
+	 * @param row
+	 * @param columns the minimal number of columns of the returned row
+	 * @return
+	 * @throws IOException
+	 */
+	public Object[] read(int row, int columns) throws IOException{
+		if(row < 0 || row >= rows) throw new IndexOutOfBoundsException("Row "+row+" has not been spilled");
+		ByteBuffer in = chunk((int)(offsets[row] / CHUNK_SIZE)).duplicate();
+		in.position((int)(offsets[row] % CHUNK_SIZE));
+		int count = in.getInt();
+		Object[] values = new Object[Math.max(count, columns)];
+		for(int i=0; i<count; i++) values[i] = readValue(in);
+		return values;
+	}
+
+	/**
+	 * Drops all rows beyond the provided number of rows
+	 * @param rows
+	 */
+	public void truncate(int rows){
+		if(rows >= this.rows) return;
+		this.rows = rows;
+		if(rows == 0) position = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		rows = 0;
+		chunks.clear();
+		channel.close();
+		file.close();
+		Files.deleteIfExists(path);
+	}
+
+	/**
+	 * Encodes the values into the buffer
+	 * @return false if one of the values can not be spilled
+	 */
+	private boolean encode(List<Object> values, int count){
+		while(true){
+			buffer.clear();
+			try{
+				buffer.putInt(count);
+				for(int i=0; i<count; i++) if(!writeValue(values.get(i))) return false;
+				buffer.flip();
+				return true;
+			}catch(BufferOverflowException e){
+				buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+			}
+		}
+	}
+
+	/**
+	 * Writes the encoded buffer to the file, moving to the next chunk if it does not fit the current one
+	 * @return the position the buffer was written at
+	 */
+	private long write() throws IOException{
+		int length = buffer.remaining();
+		if(length > CHUNK_SIZE) throw new IOException("Unable to spill row of "+length+" bytes");
+		if(position % CHUNK_SIZE + length > CHUNK_SIZE) position += CHUNK_SIZE - position % CHUNK_SIZE;
+		ByteBuffer out = chunk((int)(position / CHUNK_SIZE)).duplicate();
+		out.position((int)(position % CHUNK_SIZE));
+		out.put(buffer);
+		long offset = position;
+		position += length;
+		return offset;
+	}
+
+	private MappedByteBuffer chunk(int index) throws IOException{
+		while(chunks.size() <= index){
+			chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, (long)chunks.size() * CHUNK_SIZE, CHUNK_SIZE));
+		}
+		return chunks.get(index);
+	}
+
+	private boolean writeValue(Object value){
+		if(value == null) buffer.put(NULL);
+		else if(value instanceof Long) buffer.put(LONG).putLong((Long)value);
+		else if(value instanceof Integer) buffer.put(INTEGER).putInt((Integer)value);
+		else if(value instanceof Double) buffer.put(DOUBLE).putDouble((Double)value);
+		else if(value instanceof Float) buffer.put(FLOAT).putFloat((Float)value);
+		else if(value instanceof Boolean) buffer.put((Boolean)value ? TRUE : FALSE);
+		else if(value instanceof Short) buffer.put(SHORT).putShort((Short)value);
+		else if(value instanceof Byte) buffer.put(BYTE).put((Byte)value);
+		else if(value instanceof Timestamp && ((Timestamp)value).getNanos() % 1000000 == 0) buffer.put(TIMESTAMP).putLong(((Timestamp)value).getTime());
+		else if(value instanceof String){
+			byte[] bytes = ((String)value).getBytes(StandardCharsets.UTF_8);
+			buffer.put(STRING).putInt(bytes.length).put(bytes);
+		}else if(value instanceof ESArray){
+			List<Object> list = ((ESArray)value).getList();
+			buffer.put(ARRAY).putInt(list.size());
+			for(Object o : list) if(o instanceof ESArray || !writeValue(o)) return false;
+		}else return false;
+		return true;
+	}
+
+	private Object readValue(ByteBuffer in){
+		byte tag = in.get();
+		switch(tag){
+			case NULL : return null;
+			case LONG : return in.getLong();
+			case INTEGER : return in.getInt();
+			case DOUBLE : return in.getDouble();
+			case FLOAT : return in.getFloat();
+			case TRUE : return Boolean.TRUE;
+			case FALSE : return Boolean.FALSE;
+			case SHORT : return in.getShort();
+			case BYTE : return in.get();
+			case TIMESTAMP : return new Timestamp(in.getLong());
+			case STRING : {
+				byte[] bytes = new byte[in.getInt()];
+				in.get(bytes);
+				return new String(bytes, StandardCharsets.UTF_8);
+			}
+			case ARRAY : {
+				int size = in.getInt();
+				List<Object> list = new ArrayList<Object>(size);
+				for(int i=0; i<size; i++) list.add(readValue(in));
+				return new ESArray(list);
+			}
+			default : throw new IllegalStateException("Unknown value type "+tag+" in spill file");
+		}
+	}
+}
@@ -21,14 +21,19 @@ import java.sql.Statement;
 import java.sql.Struct;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Executor;
 
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequest;
+import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.cluster.metadata.MappingMetadata;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.TransportAddress;
 //import org.elasticsearch.test.ESIntegTestCase;
@@ -36,6 +41,8 @@ import org.elasticsearch.common.xcontent.XContentElasticsearchExtension;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.carrotsearch.hppc.cursors.ObjectCursor;
+
 import in.pazmysaz.essql.ESDatabaseMetaData;
 import in.pazmysaz.essql.model.Heading;
 import in.pazmysaz.essql.model.Utils;
@@ -62,6 +69,7 @@ public class ESConnection implements Connection{
 	private boolean autoCommit = false;
 	private boolean readOnly = true;
 	private List<ESStatement> statements = new ArrayList<ESStatement>();
+	private StatementCache statementCache;
 
 	private XContentElasticsearchExtension xc = new XContentElasticsearchExtension();
 	/**
@@ -77,6 +85,7 @@ public class ESConnection implements Connection{
 		this.port = port;
 		this.host = host;
 		this.props = props;
+		this.statementCache = new StatementCache(Utils.getIntProp(props, Utils.PROP_PARSE_CACHE_SIZE, 256));
 		this.client = buildClient();
 		try{
 			this.getTypeMap(); // loads types into properties
@@ -150,6 +159,13 @@ public class ESConnection implements Connection{
 		return this.client;
 	}
 	
+	/**
+	 * @return the cache holding the statements parsed for this connection
+	 */
+	public StatementCache getStatementCache(){
+		return this.statementCache;
+	}
+	
 	@Override
 	public <T> T unwrap(Class<T> iface) throws SQLException {
 		throw new SQLFeatureNotSupportedException(Utils.getLoggingInfo());
@@ -301,6 +317,7 @@ public class ESConnection implements Connection{
 			tableColumnInfo.get(table).put(col, type);
 		}
 		this.props.put(Utils.PROP_TABLE_COLUMN_MAP, tableColumnInfo);
+		this.props.put(Utils.PROP_TABLE_DOCVALUE_MAP, getDocValueFields());
 		
 		Map<String, Class<?>> result = new HashMap<String, Class<?>>();
 		for(Map.Entry<String,Map<String,Integer>> typeEntry : tableColumnInfo.entrySet()){
@@ -312,6 +329,72 @@ public class ESConnection implements Connection{
 		return result;
 	}
 
+	/**
+	 * Determines per table which fields can be read from doc values instead of the _source by parsing the mappings 
+	 * of the active index. When the active index is an alias a field must be eligible within all the indices it points to.
+	 * Mappings are only requested when {@link Utils#PROP_DOCVALUE_FIELDS} is enabled.
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, Set<String>> getDocValueFields(){
+		Map<String, Set<String>> tableDocValueInfo = new HashMap<String, Set<String>>();
+		if(!Utils.getBooleanProp(props, Utils.PROP_DOCVALUE_FIELDS, false)) return tableDocValueInfo;
+		GetMappingsResponse response;
+		try{
+			response = (index == null ? client.admin().indices().prepareGetMappings() : 
+				client.admin().indices().prepareGetMappings(index)).execute().actionGet();
+		}catch(Exception e){
+			// without mappings no field is read from doc values
+			return tableDocValueInfo;
+		}
+		Set<String> seen = new HashSet<String>();
+		for(ObjectCursor<ImmutableOpenMap<String, MappingMetadata>> indexMappings : response.mappings().values()){
+			for(ObjectCursor<MappingMetadata> mapping : indexMappings.value.values()){
+				String table = mapping.value.type();
+				Set<String> fields = new HashSet<String>();
+				Map<String, Object> properties = (Map<String, Object>)mapping.value.getSourceAsMap().get("properties");
+				if(properties != null) for(Map.Entry<String, Object> field : properties.entrySet()){
+					if(field.getValue() instanceof Map && hasDocValues(field.getKey(), (Map<String, Object>)field.getValue())) fields.add(field.getKey());
+				}
+				if(seen.add(table)) tableDocValueInfo.put(table, fields);
+				else tableDocValueInfo.get(table).retainAll(fields);
+			}
+		}
+		return tableDocValueInfo;
+	}
+
+	/**
+	 * Determines if the values of a column can be read from doc values instead of the _source. This is the case 
+	 * for top level keyword, long, integer, short, byte, double, date and boolean fields that did not disable 
+	 * doc_values in their mapping. Fields whose doc values differ from the value in the _source are excluded:
+	 * <ul>
+	 * <li>keywords with a normalizer (doc values hold the normalized value)</li>
+	 * <li>keywords with ignore_above (doc values are missing for longer values)</li>
+	 * <li>float and half_float fields (doc values are widened to imprecise doubles)</li>
+	 * </ul>
+	 * Fields within objects are excluded because these might be (nested) arrays which are exploded into rows.
+	 * Note that values of multi-valued fields are returned sorted (and de-duplicated for keywords) by doc values.
+	 * @param col
+	 * @param mapping the mapping properties of the field
+	 * @return
+	 */
+	private static boolean hasDocValues(String col, Map<String, Object> mapping){
+		Object esType = mapping.get("type");
+		if(col.contains(".") || col.startsWith("_") || !(esType instanceof String)) return false;
+		if("false".equals(String.valueOf(mapping.get("doc_values")))) return false;
+		switch((String)esType){
+			case "keyword" : return !mapping.containsKey("normalizer") && !mapping.containsKey("ignore_above");
+			case "long" :
+			case "integer" :
+			case "short" :
+			case "byte" :
+			case "double" :
+			case "date" :
+			case "boolean" : return true;
+			default : return false;
+		}
+	}
+
 	@Override
 	public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
 		 throw new SQLFeatureNotSupportedException(Utils.getLoggingInfo());
@@ -20,26 +20,62 @@ import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import com.facebook.presto.sql.tree.BetweenPredicate;
+import com.facebook.presto.sql.tree.ComparisonExpression;
+import com.facebook.presto.sql.tree.DefaultTraversalVisitor;
+import com.facebook.presto.sql.tree.Expression;
+import com.facebook.presto.sql.tree.InListExpression;
+import com.facebook.presto.sql.tree.LikePredicate;
+import com.facebook.presto.sql.tree.Parameter;
+import com.facebook.presto.sql.tree.Query;
+import com.facebook.presto.sql.tree.QuerySpecification;
 
 import in.pazmysaz.essql.ESParameterMetaData;
+import in.pazmysaz.essql.InsertTemplate;
 import in.pazmysaz.essql.model.Utils;
 
 public class ESPreparedStatement extends ESStatement implements PreparedStatement{
 
+	// formatter is immutable and thread safe and can therefore be shared by all statements
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ").withZone(ZoneId.systemDefault());
+	
+	private final String sql;
 	private Object[] sqlAndParams;
-	private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+	
+	// SELECT statement parsed once on creation, parameters are bound to it on each execution. Only set when all
+	// parameters are values within the WHERE clause, other queries are executed by building the sql
+	private Query query = null;
+	
+	// parameter sets added to the batch of an INSERT ... VALUES statement
+	private InsertTemplate template = null;
+	private boolean templateParsed = false;
+	private List<Object[]> batch = new ArrayList<Object[]>();
 	
 	public ESPreparedStatement(ESConnection connection, String sql) throws SQLException{
 		super(connection);
 		sql = sql.trim();
+		this.sql = sql.replaceAll("\r", " ").replaceAll("\n", " ");
 
 		String[] parts = (sql+";").split("\\?");
 		this.sqlAndParams = new Object[parts.length*2-1];
 		for(int i=0; i<parts.length; i++){
 			this.sqlAndParams[i*2] = parts[i];
 		}
+		
+		try{
+			com.facebook.presto.sql.tree.Statement statement = connection.getStatementCache().get(this.sql);
+			if(statement instanceof Query && parametersBindable((Query)statement)) this.query = (Query)statement;
+		}catch(Exception e){
+			// not a statement Presto can parse (like UPDATE), executed by building the sql for each execution
+		}
 	}
 	
 	/**
@@ -51,7 +87,9 @@ public class ESPreparedStatement extends ESStatement implements PreparedStatemen
 		StringBuilder sb = new StringBuilder();
 		for(int i=0; i<sqlAndParams.length; i++)try {
 			if(sqlAndParams[i] instanceof Date){
-				sb.append("'"+dateFormat.format((Date)sqlAndParams[i])+"' ");
+				sb.append("'"+formatDate((Date)sqlAndParams[i])+"' ");
+			}else if(i % 2 == 1 && sqlAndParams[i] instanceof String){
+				sb.append("'"+((String)sqlAndParams[i]).replace("'", "''")+"' ");
 			}else{
 				sb.append(sqlAndParams[i]+" ");
 			}
@@ -61,14 +99,112 @@ public class ESPreparedStatement extends ESStatement implements PreparedStatemen
 		return sb.substring(0, sb.length()-2);
 	}
 	
+	/**
+	 * Returns the current values of the parameters as they are inserted by an SQL statement built by {@link #buildSql()}
+	 * @return
+	 * @throws SQLException
+	 */
+	private Object[] getParameters() throws SQLException{
+		Object[] params = new Object[sqlAndParams.length / 2];
+		for(int i=0; i<params.length; i++){
+			Object value = sqlAndParams[i*2 + 1];
+			if(value instanceof Date) value = formatDate((Date)value);
+			else if(value instanceof BigDecimal) value = ((BigDecimal)value).doubleValue();
+			else if(value instanceof Array) value = ((Array)value).getArray();
+			else if(value instanceof URL) value = value.toString();
+			params[i] = value;
+		}
+		return params;
+	}
+	
+	private static String formatDate(Date date){
+		return DATE_FORMAT.format(Instant.ofEpochMilli(date.getTime()));
+	}
+	
+	/**
+	 * Checks if all parameters of the query can be bound to the parsed query, which is the case when they are
+	 * used as value within the WHERE clause (compared to, BETWEEN, IN or LIKE) 
+	 * @param query
+	 * @return
+	 */
+	private static boolean parametersBindable(Query query){
+		final int[] counts = new int[2]; // all parameters, parameters used as value within a WHERE clause
+		new DefaultTraversalVisitor<Void, Void>(){
+			@Override
+			protected Void visitParameter(Parameter node, Void context){
+				counts[0]++;
+				return null;
+			}
+		}.process(query, null);
+		new DefaultTraversalVisitor<Void, Boolean>(){
+			@Override
+			protected Void visitQuerySpecification(QuerySpecification node, Boolean where){
+				if(node.getFrom().isPresent()) process(node.getFrom().get(), false);
+				if(node.getWhere().isPresent()) process(node.getWhere().get(), true);
+				return null;
+			}
+			@Override
+			protected Void visitComparisonExpression(ComparisonExpression node, Boolean where){
+				count(where, node.getRight());
+				return super.visitComparisonExpression(node, where);
+			}
+			@Override
+			protected Void visitBetweenPredicate(BetweenPredicate node, Boolean where){
+				count(where, node.getMin(), node.getMax());
+				return super.visitBetweenPredicate(node, where);
+			}
+			@Override
+			protected Void visitInListExpression(InListExpression node, Boolean where){
+				count(where, node.getValues().toArray(new Expression[0]));
+				return super.visitInListExpression(node, where);
+			}
+			@Override
+			protected Void visitLikePredicate(LikePredicate node, Boolean where){
+				count(where, node.getPattern());
+				return super.visitLikePredicate(node, where);
+			}
+			private void count(Boolean where, Expression... values){
+				if(Boolean.TRUE.equals(where)) for(Expression value : values) if(value instanceof Parameter) counts[1]++;
+			}
+		}.process(query, false);
+		return counts[0] == counts[1];
+	}
+	
+	/**
+	 * Executes the SELECT parsed on creation of this statement by binding the current parameters to it. 
+	 * @return the resultset
+	 * @throws SQLException
+	 */
+	private ResultSet executeParsedQuery() throws SQLException{
+		if(connection.getSchema() == null) throw new SQLException("No active index set for this driver. Pleas specify an active index or alias by executing 'USE <index/alias>' first");
+		queryState.buildRequest(sql, query.getQueryBody(), getParameters(), connection.getSchema());
+		if(this.result != null) this.result.close();
+		this.result = queryState.execute();
+		return this.result;
+	}
+	
+	/**
+	 * @return the template of an INSERT ... VALUES statement, parsed on first use, or null if this is not such a statement
+	 * @throws SQLException
+	 */
+	private InsertTemplate getTemplate() throws SQLException{
+		if(!templateParsed){
+			template = updateState.prepareInsert(sql, connection.getSchema());
+			templateParsed = true;
+		}
+		return template;
+	}
+	
 	@Override
 	public ResultSet executeQuery() throws SQLException {
+		if(query != null) return executeParsedQuery();
 		if (super.execute(this.buildSql())) return getResultSet();
 		else return null;
 	}
 
 	@Override
 	public int executeUpdate() throws SQLException {
+		if(getTemplate() != null) return updateState.executeBatch(template, Collections.singletonList(getParameters()))[0];
         return super.executeUpdate(this.buildSql());
 	    /*		throw new SQLFeatureNotSupportedException(Utils.getLoggingInfo());*/
 	}
@@ -123,8 +259,7 @@ public class ESPreparedStatement extends ESStatement implements PreparedStatemen
 
 	@Override
 	public void setString(int parameterIndex, String x) throws SQLException {
-		// TODO: escape
-		this.sqlAndParams[(parameterIndex*2) - 1] = "'"+x+"'";
+		this.sqlAndParams[(parameterIndex*2) - 1] = x;
 	}
 
 	@Override
@@ -170,24 +305,45 @@ public class ESPreparedStatement extends ESStatement implements PreparedStatemen
 
 	@Override
 	public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
-		if(x instanceof String) this.sqlAndParams[(parameterIndex*2) - 1] = "'"+x+"'";
-		else this.sqlAndParams[(parameterIndex*2) - 1] = x;
+		this.sqlAndParams[(parameterIndex*2) - 1] = x;
 	}
 
 	@Override
 	public void setObject(int parameterIndex, Object x) throws SQLException {
-		if(x instanceof String ) this.sqlAndParams[(parameterIndex*2) - 1] = "'"+x+"'";
-		else this.sqlAndParams[(parameterIndex*2) - 1] = x;
+		this.sqlAndParams[(parameterIndex*2) - 1] = x;
 	}
 
 	@Override
 	public boolean execute() throws SQLException {
+		if(query != null) return executeParsedQuery() != null;
 		return super.execute(this.buildSql());
 	}
 
+	/**
+	 * Adds the current parameters to the batch. The parameters of an INSERT ... VALUES statement are kept as values
+	 * which are bound to the statement parsed once on {@link #executeBatch()}, other statements are added to the
+	 * batch as SQL.
+	 */
 	@Override
 	public void addBatch() throws SQLException {
-		super.addBatch(this.buildSql());
+		if(getTemplate() != null) batch.add(getParameters());
+		else super.addBatch(this.buildSql());
+	}
+	
+	@Override
+	public void clearBatch() throws SQLException {
+		batch.clear();
+		super.clearBatch();
+	}
+	
+	@Override
+	public int[] executeBatch() throws SQLException {
+		if(batch.isEmpty()) return super.executeBatch();
+		try{
+			return updateState.executeBatch(template, batch);
+		}finally{
+			batch.clear();
+		}
 	}
 
 	@Override
@@ -9,7 +9,6 @@ import java.sql.Statement;
 import java.util.List;
 import java.util.Optional;
 
-import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.*;
 
 import in.pazmysaz.essql.ESQueryState;
@@ -22,7 +21,6 @@ import in.pazmysaz.essql.parse.sql.QueryParser;
 
 public class ESStatement implements Statement {
 
-	private static final SqlParser parser = new SqlParser();
 	protected ESConnection connection;
 	
 	protected int queryTimeoutSec = 10;
@@ -54,7 +52,7 @@ public class ESStatement implements Statement {
 		//System.out.println("QUERY: ["+sql+"]");
 		if(connection.getSchema() == null) throw new SQLException("No active index set for this driver. Pleas specify an active index or alias by executing 'USE <index/alias>' first");
 		sql = sql.replaceAll("\r", " ").replaceAll("\n", " ");
-		com.facebook.presto.sql.tree.Statement statement = parser.createStatement(sql);
+		com.facebook.presto.sql.tree.Statement statement = connection.getStatementCache().get(sql);
 		if(statement instanceof Query){
 			if(this.result != null) this.result.close();
 			queryState.buildRequest(sql, ((Query)statement).getQueryBody(), connection.getSchema());
@@ -83,7 +81,7 @@ public class ESStatement implements Statement {
 			return updateState.execute(sql);
 		}
 		
-		com.facebook.presto.sql.tree.Statement statement = parser.createStatement(sql);
+		com.facebook.presto.sql.tree.Statement statement = StatementCache.parse(sql);
 		if(statement instanceof Query) throw new SQLException("A regular query cannot be executed as an Update");
 		if(statement instanceof Insert){
 			//if(connection.getSchema() == null) throw new SQLException("No active index set for this driver. Pleas specify an active index or alias by executing 'USE <index/alias>' first");
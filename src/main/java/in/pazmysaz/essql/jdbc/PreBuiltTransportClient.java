@@ -6,6 +6,7 @@ import io.netty.util.concurrent.GlobalEventExecutor;
 import org.elasticsearch.common.SuppressForbidden;
 import org.elasticsearch.common.network.NetworkModule;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.reindex.ReindexPlugin;
 import org.elasticsearch.painless.PainlessPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.transport.Netty4Plugin;
@@ -68,6 +69,6 @@ public class PreBuiltTransportClient extends TransportClient {
 
     static {
         initializeNetty();
-        PRE_INSTALLED_PLUGINS = Collections.unmodifiableList(Arrays.asList(Netty4Plugin.class, PainlessPlugin.class));
+        PRE_INSTALLED_PLUGINS = Collections.unmodifiableList(Arrays.asList(Netty4Plugin.class, PainlessPlugin.class, ReindexPlugin.class));
     }
 }
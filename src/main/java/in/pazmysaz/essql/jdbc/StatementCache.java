@@ -0,0 +1,124 @@
+package in.pazmysaz.essql.jdbc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.facebook.presto.sql.parser.SqlParser;
+import com.facebook.presto.sql.tree.Query;
+import com.facebook.presto.sql.tree.Statement;
+
+import in.pazmysaz.essql.model.Utils;
+
+/**
+ * Bounded LRU cache holding the queries parsed by Presto for the SQL executed on a connection, shared by
+ * all statements created by that connection. The parsed queries (the AST) are immutable and only depend on
+ * the SQL itself which allows them to be reused by any statement, independent of the active index and its
+ * mappings. The cache holds at most {@link Utils#PROP_PARSE_CACHE_SIZE} queries, a size of 0 disables it.
+ * Only queries are cached, other statements (like inserts with literal values) are typically executed once
+ * and would push the repeated queries out of the cache.
+ *
+ * The number of hits and misses can be used to size the cache.
+ *
+ * @author cversloot
+ *
+ */
+public class StatementCache {
+
+	private static final SqlParser parser = new SqlParser();
+
+	private final int maxSize;
+	private final Map<String, Statement> statements;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxSize the maximum number of statements kept
+	 */
+	public StatementCache(int maxSize){
+		this.maxSize = Math.max(0, maxSize);
+		this.statements = new LinkedHashMap<String, Statement>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Statement> eldest) {
+				return size() > StatementCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the parsed statement for the provided sql, parsing it if it is not cached. The statement is 
+	 * added to the cache when it is a {@link Query}. Parsing is done outside the lock which means concurrent 
+	 * misses for the same sql may both parse it.
+	 * @param sql
+	 * @return
+	 * @throws com.facebook.presto.sql.parser.ParsingException if the sql can not be parsed (which is not cached)
+	 */
+	public Statement get(String sql){
+		String key = sql.trim();
+		if(maxSize > 0) synchronized (statements) {
+			Statement statement = statements.get(key);
+			if(statement != null){
+				hits.incrementAndGet();
+				return statement;
+			}
+		}
+		misses.incrementAndGet();
+		Statement statement = parser.createStatement(key);
+		if(maxSize > 0 && statement instanceof Query) synchronized (statements) {
+			statements.put(key, statement);
+		}
+		return statement;
+	}
+
+	/**
+	 * Parses the provided sql without using (or counting as a miss of) the cache, used for statements
+	 * which are not expected to be repeated
+	 * @param sql
+	 * @return
+	 * @throws com.facebook.presto.sql.parser.ParsingException if the sql can not be parsed
+	 */
+	public static Statement parse(String sql){
+		return parser.createStatement(sql);
+	}
+
+	/**
+	 * Removes all statements from the cache
+	 */
+	public void clear(){
+		synchronized (statements) {
+			statements.clear();
+		}
+	}
+
+	/**
+	 * @return the number of statements currently cached
+	 */
+	public int size(){
+		synchronized (statements) {
+			return statements.size();
+		}
+	}
+
+	/**
+	 * @return the maximum number of statements cached
+	 */
+	public int getMaxSize(){
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of times a statement was found in the cache
+	 */
+	public long getHits(){
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of times a statement had to be parsed
+	 */
+	public long getMisses(){
+		return misses.get();
+	}
+}
@@ -12,7 +12,7 @@ import in.pazmysaz.essql.model.expression.ICalculation;
  */
 public class Column implements Comparable<Column>{
 	
-	public enum Operation {NONE, AVG, SUM, MIN, MAX, COUNT, HIGHLIGHT, COUNT_DISTINCT}
+	public enum Operation {NONE, AVG, SUM, MIN, MAX, COUNT, HIGHLIGHT, COUNT_DISTINCT, DATE_HISTOGRAM, HISTOGRAM, APPROX_COUNT_DISTINCT, PERCENTILE}
 	
 	private String columnName;
 	private String tableName;
@@ -23,6 +23,7 @@ public class Column implements Comparable<Column>{
 	private int sqlType = Types.OTHER;
 	private ICalculation calculation = null;
 	private boolean isVisible = true;
+	private Object[] arguments = new Object[0];
 	
 	public Column(String columnName, Operation op) {
 		this.columnName = columnName;
@@ -39,6 +40,10 @@ public class Column implements Comparable<Column>{
 			case AVG: sqlType = Types.DOUBLE; break;
 			case HIGHLIGHT: sqlType = Types.ARRAY; break;
 			case COUNT_DISTINCT: sqlType = Types.BIGINT; break;
+			case DATE_HISTOGRAM: sqlType = Types.TIMESTAMP; break;
+			case HISTOGRAM: sqlType = Types.DOUBLE; break;
+			case APPROX_COUNT_DISTINCT: sqlType = Types.BIGINT; break;
+			case PERCENTILE: sqlType = Types.DOUBLE; break;
 			default: sqlType = Types.OTHER;
 		}
 		//if(calculation != null) sqlType = Types.DOUBLE;
@@ -138,6 +143,10 @@ public class Column implements Comparable<Column>{
 			case MIN: return "min("+name+")";
 			case SUM: return "sum("+name+")";
 			case COUNT_DISTINCT: return "count (distinct "+name+")";
+			case DATE_HISTOGRAM: return "date_histogram("+name+argumentList()+")";
+			case HISTOGRAM: return "histogram("+name+argumentList()+")";
+			case APPROX_COUNT_DISTINCT: return "approx_count_distinct("+name+argumentList()+")";
+			case PERCENTILE: return "percentile("+name+argumentList()+")";
 			default : return name;
 		}
 	}
@@ -154,12 +163,47 @@ public class Column implements Comparable<Column>{
 			case MIN: return "min("+name+")";
 			case SUM: return "sum("+name+")";
 			case COUNT_DISTINCT: return "count (distinct "+name+")";
+			case DATE_HISTOGRAM: return "date_histogram("+name+argumentList()+")";
+			case HISTOGRAM: return "histogram("+name+argumentList()+")";
+			case APPROX_COUNT_DISTINCT: return "approx_count_distinct("+name+argumentList()+")";
+			case PERCENTILE: return "percentile("+name+argumentList()+")";
 			default : return name;
 		}
 	}
 	
 	
 	
+	/**
+	 * Gets the additional arguments of the function of this column, for example the interval
+	 * and time zone of a DATE_HISTOGRAM or the percentile and method of a PERCENTILE
+	 * @return the arguments (an empty array if the function has none)
+	 */
+	public Object[] getArguments() {
+		return arguments;
+	}
+	
+	public Column setArguments(Object... arguments) {
+		this.arguments = arguments;
+		return this;
+	}
+	
+	/**
+	 * @return the arguments which are set (not null) preceded by a comma, used to give functions on the same 
+	 * field with different arguments (like intervals or time zones) different names 
+	 */
+	private String argumentList(){
+		StringBuilder list = new StringBuilder();
+		for(Object argument : arguments) if(argument != null) list.append(", ").append(argument);
+		return list.toString();
+	}
+	
+	/**
+	 * @return true if the values of this column are the keys of (date) histogram buckets 
+	 */
+	public boolean isHistogram(){
+		return op == Operation.DATE_HISTOGRAM || op == Operation.HISTOGRAM;
+	}
+	
 	public int getSqlType() {
 		return sqlType;
 	}
@@ -169,7 +213,7 @@ public class Column implements Comparable<Column>{
 	 * @param sqlType
 	 */
 	public Column setSqlType(int sqlType) {
-		if(this.op != Operation.AVG)	this.sqlType = sqlType;
+		if(this.op != Operation.AVG && this.op != Operation.APPROX_COUNT_DISTINCT && this.op != Operation.PERCENTILE)	this.sqlType = sqlType;
 		return this;
 	}
 
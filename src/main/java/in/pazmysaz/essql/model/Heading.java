@@ -8,6 +8,7 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -135,6 +136,23 @@ public class Heading {
 		return null;
 	}
 	
+	/**
+	 * Finds the column with the same name, operation and function arguments (like the interval of a histogram)
+	 * as the provided column or which has its name as alias
+	 * @param column
+	 * @return the column or null if this heading does not have such a column
+	 */
+	public Column getColumnByNameAndOp(Column column){
+		for(Column col : columns){ // first check columnname, operation and arguments
+			if(col.getColumn().equals(column.getColumn()) && column.getOp() == col.getOp() 
+					&& Arrays.equals(column.getArguments(), col.getArguments())) return col;
+		}
+		for(Column col : columns){ // else check if it matches an alias
+			if(column.getColumn().equals(col.getAlias())) return col;
+		}
+		return null;
+	}
+	
 	public boolean hasLabel(String label){
 		return fieldIndex.containsKey(label);
 	}
@@ -264,10 +282,18 @@ public class Heading {
 	 */
 	public boolean aggregateOnly() {
 		if(this.hasAllCols()) return false;
-		for(Column s : columns) if(s.getOp() == Operation.NONE && s.getCalculation() == null) return false;
+		for(Column s : columns) if((s.getOp() == Operation.NONE || s.isHistogram()) && s.getCalculation() == null) return false;
 		return true;
 	}
 	
+	/**
+	 * @return true if any of the columns groups values into (date) histogram buckets
+	 */
+	public boolean hasHistogram(){
+		for(Column s : columns) if(s.isHistogram()) return true;
+		return false;
+	}
+	
 	/**
 	 * Gets the real index for the provided column number (starting with 1)
 	 * @param nr
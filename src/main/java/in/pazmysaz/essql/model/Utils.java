@@ -19,9 +19,18 @@ public class Utils {
 	public static final String PREFIX = "jdbc:sql4es:";
 	public static final int PORT = 9300;
 	
+	// paging modes
+	public static final String PAGING_SCROLL = "scroll";
+	public static final String PAGING_SEARCH_AFTER = "search_after";
+	
+	// grouping modes
+	public static final String GROUPING_TERMS = "terms";
+	public static final String GROUPING_COMPOSITE = "composite";
+	
 	// defaults
 	private static final int FETCH_SIZE = 10000; // 10K is current max for ES
 	private static final int SCROLL_TIMEOUT_SEC = 10;
+	private static final int SCROLL_PREFETCH = 1; // number of scroll pages fetched ahead in the background
 	private static final int QUERY_TIMEOUT_MS = 10000;
 	private static final int DEFAULT_ROW_LENGTH = 250; // used during initialization of rows when querying all columns (Select *)
 	private static final String QUERY_CACHE = "query_cache";
@@ -33,15 +42,33 @@ public class Utils {
 	// property keys
 	public static final String PROP_FETCH_SIZE = "fetch.size";
 	public static final String PROP_SCROLL_TIMEOUT_SEC = "scroll.timeout.sec";
+	public static final String PROP_SCROLL_PREFETCH = "scroll.prefetch";
+	public static final String PROP_SCROLL_SLICES = "scroll.slices";
+	public static final String PROP_PAGING_MODE = "paging.mode";
+	public static final String PROP_GROUPING_MODE = "grouping.mode";
 	public static final String PROP_QUERY_TIMEOUT_MS = "query.timeout.ms";
 	public static final String PROP_DEFAULT_ROW_LENGTH = "default.row.length";
 	public static final String PROP_QUERY_CACHE_TABLE = "query.cache.table";
 	public static final String PROP_RESULT_NESTED_LATERAL = "result.nested.lateral";
 	public static final String PROP_TABLE_COLUMN_MAP = "table.column.info.map";
+	public static final String PROP_TABLE_DOCVALUE_MAP = "table.docvalue.info.map";
+	public static final String PROP_DOCVALUE_FIELDS = "docvalue.fields";
 	public static final String PROP_FRAGMENT_SIZE = "fragment.size";
 	public static final String PROP_FRAGMENT_NUMBER = "fragment.number";
 	public static final String PROP_RESULTS_SPLIT = "results.split";
+	public static final String PROP_RESULTS_STREAM = "results.stream";
+	public static final String PROP_RESULTS_MEMORY_MB = "results.memory.mb";
 	public static final String PROP_PRECISION_THRESHOLD = "precision.threshold";
+	public static final String PROP_BULK_ACTIONS = "bulk.actions";
+	public static final String PROP_BULK_SIZE_MB = "bulk.size.mb";
+	public static final String PROP_BULK_CONCURRENCY = "bulk.concurrency";
+	public static final String PROP_BULK_FLUSH_MS = "bulk.flush.ms";
+	public static final String PROP_BULK_RETRIES = "bulk.retries";
+	public static final String PROP_BULK_BACKOFF_MS = "bulk.backoff.ms";
+	public static final String PROP_BYQUERY_SLICES = "byquery.slices";
+	public static final String PROP_BYQUERY_REQUESTS_PER_SECOND = "byquery.requests.per.second";
+	public static final String PROP_BYQUERY_CONFLICTS = "byquery.conflicts";
+	public static final String PROP_PARSE_CACHE_SIZE = "parse.cache.size";
 	
 	
 	public static String getLoggingInfo(){
@@ -59,6 +86,7 @@ public class Utils {
 		Properties defaults = new Properties();
 		defaults.put(PROP_FETCH_SIZE, FETCH_SIZE);
 		defaults.put(PROP_SCROLL_TIMEOUT_SEC, SCROLL_TIMEOUT_SEC);
+		defaults.put(PROP_SCROLL_PREFETCH, SCROLL_PREFETCH);
 		defaults.put(PROP_DEFAULT_ROW_LENGTH, DEFAULT_ROW_LENGTH);
 		defaults.put(PROP_QUERY_CACHE_TABLE, QUERY_CACHE);
 		defaults.put(PROP_QUERY_TIMEOUT_MS, QUERY_TIMEOUT_MS);
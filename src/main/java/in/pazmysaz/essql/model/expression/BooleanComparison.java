@@ -21,6 +21,18 @@ public class BooleanComparison implements IComparison{
 		else return left.evaluate(row) || right.evaluate(row);
 	}
 	
+	public IComparison getLeft() {
+		return left;
+	}
+
+	public IComparison getRight() {
+		return right;
+	}
+
+	public boolean isMust() {
+		return must;
+	}
+
 	public String toString(){
 		return (must?"AND ": "OR  ")+"Left: "+left+"\tRight: "+right;
 	}
@@ -28,6 +28,22 @@ public class SimpleComparison implements IComparison{
 		this.rightColumn = rightColumn;
 	}
 
+	public Column getLeftColumn() {
+		return leftColumn;
+	}
+
+	public ComparisonExpressionType getComparisonType() {
+		return comparisonType;
+	}
+
+	public Number getRightValue() {
+		return rightValue;
+	}
+
+	public Column getRightColumn() {
+		return rightColumn;
+	}
+
 	public String toString(){
 		return leftColumn.getFullName()+" "+comparisonType+" "+rightValue +" ("+rightValue.getClass().getSimpleName()+")";
 	}
@@ -47,8 +63,7 @@ public class SimpleComparison implements IComparison{
 			}else{
 				Object colValue = row.get(rightColumn.getIndex());
 				if(!(colValue instanceof Number)) throw new SQLException("Unable to filter row because value '"+colValue+"' has unknown type "+colValue.getClass().getSimpleName());
-				this.rightValue = (Number)colValue;
-				rightValue = this.rightValue.doubleValue();
+				rightValue = ((Number)colValue).doubleValue();
 			}
 
 			if(this.comparisonType == ComparisonExpressionType.EQUAL) return leftValue.equals( rightValue );
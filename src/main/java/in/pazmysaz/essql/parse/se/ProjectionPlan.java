@@ -0,0 +1,167 @@
+package in.pazmysaz.essql.parse.se;
+
+import java.io.IOException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.LoggingDeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+
+import in.pazmysaz.essql.ESArray;
+import in.pazmysaz.essql.model.Column;
+import in.pazmysaz.essql.model.Heading;
+import in.pazmysaz.essql.model.Column.Operation;
+
+/**
+ * A projection of document sources onto the columns of a {@link Heading}, compiled into a trie of field names
+ * once per query. Each node in the trie holds the columns its path is selected by, which allows values to be
+ * written straight into their row slots without building full keys or looking up labels for every field of
+ * every document. The source is read as a stream of tokens and only the values of selected fields are decoded,
+ * unselected subtrees are skipped without building the Map representation of the document.
+ *
+ * The plan only handles the common case of scalars, arrays of scalars and (single) objects leading to
+ * selected fields. When a document contains an object selected as a whole or an array of objects on a
+ * selected path (which must be exploded into multiple rows) {@link #project(BytesReference, List)} returns
+ * false and the document must be parsed by {@link SearchHitParser} instead.
+ *
+ * @author cversloot
+ *
+ */
+public class ProjectionPlan {
+
+	private final Heading heading;
+	private final Node root = new Node();
+
+	private ProjectionPlan(Heading heading){
+		this.heading = heading;
+	}
+
+	/**
+	 * Compiles a plan for the provided heading
+	 * @param heading
+	 * @return the plan or null if the heading selects all fields (SELECT *) in which case no plan can be made
+	 */
+	public static ProjectionPlan compile(Heading heading){
+		if(heading.hasAllCols()) return null;
+		ProjectionPlan plan = new ProjectionPlan(heading);
+		for(Column col : heading.columns()){
+			if(col.hasCalculation() || col.getOp() != Operation.NONE) continue;
+			if(col.getColumn().equals("*")) return null;
+			Node node = plan.root;
+			for(String part : col.getColumn().split("\\.")) node = node.child(part);
+			node.addColumn(col);
+		}
+		return plan;
+	}
+
+	/**
+	 * Checks if this plan was compiled for the provided heading. Columns added to the heading afterwards
+	 * (by parsing documents the plan could not handle) do not invalidate the plan because existing columns
+	 * keep their index. 
+	 * @param heading
+	 * @return
+	 */
+	public boolean compiledFor(Heading heading){
+		return this.heading == heading;
+	}
+
+	/**
+	 * Writes the values from the source selected by this plan into the row.
+	 * @param source
+	 * @param row
+	 * @return true if the source was projected or false if the source contains structures
+	 * this plan can not handle (the row might have been partially filled in that case)
+	 * @throws IOException if the source could not be read
+	 */
+	public boolean project(BytesReference source, List<Object> row) throws IOException{
+		if(source == null) return true;
+		try(XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY, 
+				LoggingDeprecationHandler.INSTANCE, source)){
+			if(parser.nextToken() != Token.START_OBJECT) return false;
+			return project(root, parser, row);
+		}
+	}
+
+	/**
+	 * Projects the fields of the object the parser is positioned at and leaves the parser at the end of it
+	 */
+	private boolean project(Node node, XContentParser parser, List<Object> row) throws IOException{
+		Token token;
+		while((token = parser.nextToken()) == Token.FIELD_NAME){
+			Node child = node.get(parser.currentName());
+			token = parser.nextToken();
+			if(child == null){
+				parser.skipChildren();
+			}else if(token == Token.START_OBJECT){
+				// objects selected as a whole are expanded into a column per field
+				if(child.columns != null) return false;
+				if(!project(child, parser, row)) return false;
+			}else if(token == Token.START_ARRAY){
+				List<Object> list = child.columns == null ? null : new ArrayList<Object>();
+				while((token = parser.nextToken()) != Token.END_ARRAY){
+					// arrays of objects are exploded into multiple rows
+					if(token == Token.START_OBJECT || token == Token.START_ARRAY) return false;
+					if(list != null) list.add(value(parser, token));
+				}
+				if(list != null && !list.isEmpty()) for(Column col : child.columns){
+					col.setSqlType(Types.ARRAY);
+					row.set(col.getIndex(), new ESArray(list));
+				}
+			}else if(child.columns != null && token != Token.VALUE_NULL){
+				Object value = value(parser, token);
+				for(Column col : child.columns) row.set(col.getIndex(), value);
+			}
+		}
+		return token == Token.END_OBJECT;
+	}
+
+	/**
+	 * Reads the scalar the parser is positioned at in the same way the Map representation of a source does
+	 */
+	private Object value(XContentParser parser, Token token) throws IOException{
+		switch(token){
+			case VALUE_STRING: return parser.text();
+			case VALUE_NUMBER: return parser.numberValue();
+			case VALUE_BOOLEAN: return parser.booleanValue();
+			case VALUE_EMBEDDED_OBJECT: return parser.binaryValue();
+			default: return null;
+		}
+	}
+
+	/**
+	 * A single field name within the trie. Children are kept in arrays because nodes are small
+	 * and are walked for each document.
+	 */
+	private static class Node {
+		private String[] names = new String[0];
+		private Node[] children = new Node[0];
+		private Column[] columns = null;
+
+		private Node get(String name){
+			for(int i=0; i<names.length; i++) if(names[i].equals(name)) return children[i];
+			return null;
+		}
+
+		private Node child(String name){
+			for(int i=0; i<names.length; i++) if(names[i].equals(name)) return children[i];
+			Node child = new Node();
+			names = Arrays.copyOf(names, names.length+1);
+			children = Arrays.copyOf(children, children.length+1);
+			names[names.length-1] = name;
+			children[children.length-1] = child;
+			return child;
+		}
+
+		private void addColumn(Column col){
+			List<Column> cols = columns == null ? new ArrayList<Column>() : new ArrayList<Column>(Arrays.asList(columns));
+			cols.add(col);
+			columns = cols.toArray(new Column[cols.size()]);
+		}
+	}
+}
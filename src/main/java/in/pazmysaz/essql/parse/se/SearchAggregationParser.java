@@ -1,20 +1,35 @@
 package in.pazmysaz.essql.parse.se;
 
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.sql.Types;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
 import org.elasticsearch.search.aggregations.bucket.filter.InternalFilter;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.histogram.InternalDateHistogram;
+import org.elasticsearch.search.aggregations.bucket.histogram.InternalHistogram;
 import org.elasticsearch.search.aggregations.bucket.terms.LongTerms;
 import org.elasticsearch.search.aggregations.bucket.terms.StringTerms;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.InternalAvg;
 import org.elasticsearch.search.aggregations.metrics.InternalCardinality;
+import org.elasticsearch.search.aggregations.metrics.InternalMax;
+import org.elasticsearch.search.aggregations.metrics.InternalMin;
 import org.elasticsearch.search.aggregations.metrics.InternalNumericMetricsAggregation;
+import org.elasticsearch.search.aggregations.metrics.InternalSum;
+import org.elasticsearch.search.aggregations.metrics.InternalValueCount;
+import org.elasticsearch.search.aggregations.metrics.Percentiles;
 
 import in.pazmysaz.essql.ESResultSet;
 import in.pazmysaz.essql.model.Column;
-import in.pazmysaz.essql.model.Utils;
+import in.pazmysaz.essql.model.Heading;
 import in.pazmysaz.essql.model.Column.Operation;
 
 /**
@@ -24,6 +39,10 @@ import in.pazmysaz.essql.model.Column.Operation;
  */
 public class SearchAggregationParser {
 
+	// slots of the aggregations parsed for the heading of the current query
+	private Heading heading = null;
+	private final Map<String, Slot> slots = new HashMap<String, Slot>();
+
 	/**
 	 * Parses an ES aggregation into a set of ResultRows
 	 * @param agg
@@ -31,8 +50,10 @@ public class SearchAggregationParser {
 	 * @throws SQLException
 	 */
 	public void parseAggregation(Aggregation agg, ESResultSet rs) throws SQLException{
-		if(agg instanceof Terms){
-			dfsAggregations((Terms)agg, rs, rs.getNewRow());
+		if(agg instanceof Terms || agg instanceof Histogram){
+			dfsAggregations((MultiBucketsAggregation)agg, rs, rs.getNewRow());
+		}else if (agg instanceof CompositeAggregation){
+			processCompositeAgg((CompositeAggregation)agg, rs);
 		}else if (agg instanceof InternalFilter){
 			processFilterAgg((InternalFilter)agg, rs);
 		}else if (agg instanceof InternalCardinality){
@@ -41,69 +62,146 @@ public class SearchAggregationParser {
 	}
 	
 	/**
-	 * Parse an aggregation result based on one or more aggregated terms
+	 * Parse an aggregation result based on one or more aggregated terms and/or (date) histograms. Every bucket 
+	 * overwrites the key and metric slots of its level so a single row is used for all buckets, the resultset 
+	 * copies its values.
 	 * @param terms
 	 * @param rs
 	 * @param row
 	 * @throws SQLException
 	 */
-	private void dfsAggregations(Terms terms, ESResultSet rs, List<Object> row) throws SQLException{
-		List<Object> currentRow = Utils.clone(row);
-		String columnName = terms.getName();
-		if(!rs.getHeading().hasLabel(columnName)) throw new SQLException("Unable to identify column for aggregation named "+columnName);
-		Column aggCol = rs.getHeading().getColumnByLabel(columnName);
-		for(Terms.Bucket bucket : terms.getBuckets()){
-			if (bucket instanceof StringTerms.Bucket) {
-				aggCol.setSqlType(Types.VARCHAR);
-			} else if (bucket instanceof LongTerms.Bucket) {
-				aggCol.setSqlType(Types.TIMESTAMP);
-				//ToDO: chack Timestamp
-			}
-			boolean metricAggs = false;
-			List<Aggregation> aggs = bucket.getAggregations().asList();
-			if(aggs.size() == 0){
-				currentRow.set(aggCol.getIndex(), bucket.getKey());
-				metricAggs = true;
-			}else for(Aggregation agg : bucket.getAggregations().asList()){
-				if(agg instanceof Terms){
-					currentRow.set(aggCol.getIndex(), bucket.getKey());
-					dfsAggregations((Terms)agg, rs, currentRow);
-				}else{
-					if(metricAggs == false){
-						currentRow.set(aggCol.getIndex(), bucket.getKey());
-						metricAggs = true;
-					}
-					String metricName = agg.getName();
-					if(!rs.getHeading().hasLabel(metricName)) throw new SQLException("Unable to identify column for aggregation named "+metricName);
-					Column metricCol = rs.getHeading().getColumnByLabel(metricName);
-					// ToDo: check it
-                    if (agg instanceof org.elasticsearch.search.aggregations.metrics.InternalAvg) {
-                        currentRow.set(metricCol.getIndex(), ((org.elasticsearch.search.aggregations.metrics.InternalAvg) agg).getValue());
-                    } else if (agg instanceof org.elasticsearch.search.aggregations.metrics.InternalCardinality) {
-                        currentRow.set(metricCol.getIndex(), ((org.elasticsearch.search.aggregations.metrics.InternalMax) agg).getValue());
-                    } else if (agg instanceof org.elasticsearch.search.aggregations.metrics.InternalMax) {
-                        currentRow.set(metricCol.getIndex(), ((org.elasticsearch.search.aggregations.metrics.InternalMax) agg).getValue());
-                    } else if (agg instanceof org.elasticsearch.search.aggregations.metrics.InternalMin) {
-                        currentRow.set(metricCol.getIndex(), ((org.elasticsearch.search.aggregations.metrics.InternalMax) agg).getValue());
-                    } else if (agg instanceof org.elasticsearch.search.aggregations.metrics.Percentile) {
-                        currentRow.set(metricCol.getIndex(), ((org.elasticsearch.search.aggregations.metrics.Percentile) agg).getValue());
-                    } else if (agg instanceof org.elasticsearch.search.aggregations.metrics.InternalSum) {
-                        currentRow.set(metricCol.getIndex(), ((org.elasticsearch.search.aggregations.metrics.InternalSum) agg).getValue());
-                    } else if (agg instanceof org.elasticsearch.search.aggregations.metrics.InternalValueCount) {
-                        currentRow.set(metricCol.getIndex(), ((org.elasticsearch.search.aggregations.metrics.InternalValueCount) agg).getValue());
-                    } else if (agg instanceof InternalNumericMetricsAggregation.SingleValue) {
-                        currentRow.set(metricCol.getIndex(), ((InternalNumericMetricsAggregation.SingleValue) agg).getValueAsString());
-                    } else {
-                        // ToDo: I don't know (
-                        currentRow.set(metricCol.getIndex(), agg.getName());
-                    }
-				}
+	private void dfsAggregations(MultiBucketsAggregation terms, ESResultSet rs, List<Object> row) throws SQLException{
+		Slot key = getSlot(rs.getHeading(), terms.getName());
+		if (terms instanceof StringTerms) {
+			key.column.setSqlType(Types.VARCHAR);
+		} else if (terms instanceof LongTerms || terms instanceof InternalDateHistogram) {
+			key.column.setSqlType(Types.TIMESTAMP);
+			//ToDO: chack Timestamp
+		} else if (terms instanceof InternalHistogram) {
+			key.column.setSqlType(Types.DOUBLE);
+		}
+		for(MultiBucketsAggregation.Bucket bucket : terms.getBuckets()){
+			row.set(key.index, key.key(bucket.getKey()));
+			boolean leaf = true;
+			for(Aggregation agg : bucket.getAggregations()){
+				if(agg instanceof Terms || agg instanceof Histogram){
+					dfsAggregations((MultiBucketsAggregation)agg, rs, row);
+					leaf = false;
+				}else getSlot(rs.getHeading(), agg.getName()).set(agg, row);
 			}
-			if(metricAggs){
-				rs.add(currentRow);
-				currentRow = Utils.clone(row);
+			if(leaf) rs.add(row);
+		}
+	}
+	
+	/**
+	 * Parse a page of a composite aggregation. Each bucket results in a single row holding the values of
+	 * the keys of the bucket and its metrics. 
+	 * @param composite
+	 * @param rs
+	 * @throws SQLException
+	 */
+	private void processCompositeAgg(CompositeAggregation composite, ESResultSet rs) throws SQLException{
+		Heading heading = rs.getHeading();
+		// the resultset copies the values of the row so the same row can be used for all buckets 
+		List<Object> row = rs.getNewRow();
+		for(CompositeAggregation.Bucket bucket : composite.getBuckets()){
+			for(int i=0; i<heading.getColumnCount(); i++) row.set(i, null);
+			for(Map.Entry<String, Object> key : bucket.getKey().entrySet()){
+				Slot slot = getSlot(heading, key.getKey());
+				if(key.getValue() instanceof String) slot.column.setSqlType(Types.VARCHAR);
+				row.set(slot.index, slot.key(key.getValue()));
 			}
-			currentRow = Utils.clone(row);
+			for(Aggregation agg : bucket.getAggregations()) getSlot(heading, agg.getName()).set(agg, row);
+			rs.add(row);
+		}
+	}
+	
+	/**
+	 * Returns the slot results of the aggregation with the provided name must be written to. Slots are 
+	 * resolved once per heading (query) instead of for every bucket.
+	 * @param heading
+	 * @param name
+	 * @return
+	 * @throws SQLException
+	 */
+	private Slot getSlot(Heading heading, String name) throws SQLException{
+		if(this.heading != heading){
+			this.heading = heading;
+			this.slots.clear();
+		}
+		Slot slot = slots.get(name);
+		if(slot == null){
+			Column column = heading.getColumnByLabel(name);
+			if(column == null) throw new SQLException("Unable to identify column for aggregation named "+name);
+			slot = new Slot(column);
+			slots.put(name, slot);
+		}
+		return slot;
+	}
+	
+	/**
+	 * Reads the value of a metric aggregation. The extractor is chosen once for each aggregation name
+	 * based on the type of the first aggregation returned for it.
+	 */
+	private enum Extractor {
+		DOUBLE {
+			Object extract(Aggregation agg){ return ((InternalNumericMetricsAggregation.SingleValue)agg).value(); }
+		}, 
+		VALUE_COUNT {
+			Object extract(Aggregation agg){ return ((InternalValueCount)agg).getValue(); }
+		}, 
+		CARDINALITY {
+			Object extract(Aggregation agg){ return ((InternalCardinality)agg).getValue(); }
+		}, 
+		PERCENTILE {
+			// a single percentile is requested for each column
+			Object extract(Aggregation agg){ return ((Percentiles)agg).iterator().next().getValue(); }
+		}, 
+		STRING {
+			Object extract(Aggregation agg){ return ((InternalNumericMetricsAggregation.SingleValue)agg).getValueAsString(); }
+		}, 
+		NAME {
+			// ToDo: I don't know (
+			Object extract(Aggregation agg){ return agg.getName(); }
+		};
+		
+		abstract Object extract(Aggregation agg);
+		
+		static Extractor of(Aggregation agg){
+			if(agg instanceof InternalAvg || agg instanceof InternalMax || agg instanceof InternalMin || agg instanceof InternalSum) return DOUBLE;
+			if(agg instanceof InternalValueCount) return VALUE_COUNT;
+			if(agg instanceof InternalCardinality) return CARDINALITY;
+			if(agg instanceof Percentiles) return PERCENTILE;
+			if(agg instanceof InternalNumericMetricsAggregation.SingleValue) return STRING;
+			return NAME;
+		}
+	}
+	
+	/**
+	 * The column (and its index) the results of a single aggregation are written to
+	 */
+	private static class Slot {
+		private final Column column;
+		private final int index;
+		private Extractor extractor = null;
+		
+		private Slot(Column column){
+			this.column = column;
+			this.index = column.getIndex();
+		}
+		
+		/**
+		 * Converts the key of a bucket into the value of this column, date histogram keys are turned into timestamps
+		 */
+		private Object key(Object key){
+			if(key instanceof ZonedDateTime) return new Timestamp(((ZonedDateTime)key).toInstant().toEpochMilli());
+			if(key instanceof Number && column.getOp() == Operation.DATE_HISTOGRAM) return new Timestamp(((Number)key).longValue());
+			return key;
+		}
+		
+		private void set(Aggregation agg, List<Object> row){
+			if(extractor == null) extractor = Extractor.of(agg);
+			row.set(index, extractor.extract(agg));
 		}
 	}
 	
@@ -124,15 +222,8 @@ public class SearchAggregationParser {
 			row.set(count.getIndex(), filter.getDocCount());
 		}
 		for(Aggregation agg : filter.getAggregations()){
-			if(agg instanceof InternalNumericMetricsAggregation.SingleValue){
-				InternalNumericMetricsAggregation.SingleValue numericAgg = 
-						(InternalNumericMetricsAggregation.SingleValue)agg;
-				String name =numericAgg.getName();
-				Column column = rs.getHeading().getColumnByLabel(name);
-				if(column == null){
-					throw new SQLException("Unable to identify column for "+name);
-				}
-				row.set(column.getIndex(), numericAgg.value());
+			if(agg instanceof InternalNumericMetricsAggregation.SingleValue || agg instanceof Percentiles){
+				getSlot(rs.getHeading(), agg.getName()).set(agg, row);
 			}else throw new SQLException("Unable to parse aggregation of type "+agg.getClass());
 		}
 		rs.add(row);
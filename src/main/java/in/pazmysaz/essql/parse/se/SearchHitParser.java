@@ -1,5 +1,6 @@
 package in.pazmysaz.essql.parse.se;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
@@ -8,6 +9,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.elasticsearch.common.document.DocumentField;
 import org.elasticsearch.common.text.Text;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
@@ -35,6 +37,20 @@ import in.pazmysaz.essql.model.Column.Operation;
  */
 public class SearchHitParser {
 	
+	private final boolean useProjectionPlan;
+	private ProjectionPlan plan = null;
+	
+	public SearchHitParser(){
+		this(true);
+	}
+	
+	/**
+	 * @param useProjectionPlan indicates if a {@link ProjectionPlan} may be used to parse hits (used for testing)
+	 */
+	SearchHitParser(boolean useProjectionPlan){
+		this.useProjectionPlan = useProjectionPlan;
+	}
+	
 	/**
 	 * Parses the SearchHits portion of an elasticsearch search result.
 	 * @param hits
@@ -51,7 +67,17 @@ public class SearchHitParser {
 			rs = new ESResultSet(statement, head, (int)total, rowLength);
 			rs.setOffset((int)offset);
 		}
+		ProjectionPlan plan = getPlan(head, useLateral);
 		for(SearchHit hit : hits){
+			if(plan != null){
+				List<Object> row = rs.getNewRow();
+				if(project(plan, hit, row)){
+					addIdIndexAndType(hit.getId(), hit.getIndex(), hit.getType(), hit.getScore(), null, head, row);
+					addDocumentFields(hit.getFields(), head, row);
+					rs.add(row);
+					continue;
+				}
+			}
 			this.parse(hit.getSourceAsMap(), statement, hit, rs, useLateral, "", headMap);
 		}
 		
@@ -72,6 +98,54 @@ public class SearchHitParser {
 		return rs;
 	}
 	
+	/**
+	 * Projects the source of the hit using the plan. A source which can not be read is left to the regular 
+	 * parsing which reports the problem.
+	 * @return true if the hit was projected, false if it must be parsed without the plan 
+	 */
+	private boolean project(ProjectionPlan plan, SearchHit hit, List<Object> row){
+		try {
+			return plan.project(hit.getSourceRef(), row);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns the {@link ProjectionPlan} for the provided heading, compiling it only when the heading 
+	 * changed since the last call. No plan is used when nested results are not exploded.
+	 * @param head
+	 * @param useLateral
+	 * @return the plan or null if it can not be used
+	 */
+	private ProjectionPlan getPlan(Heading head, boolean useLateral){
+		if(!useProjectionPlan || !useLateral) return null;
+		if(plan == null || !plan.compiledFor(head)) plan = ProjectionPlan.compile(head);
+		return plan;
+	}
+	
+	/**
+	 * Determines the fields that must be fetched from the _source of the documents in order to fill the 
+	 * provided heading. Nested fields are included using their full path (like nestedDoc.field) and 
+	 * selecting the root of an object includes the whole object. 
+	 * @param head
+	 * @return the paths to include or NULL if the full source is required (SELECT *). An empty array 
+	 * indicates that no source is needed at all (SELECT _id FROM ..)
+	 */
+	public String[] getSourceIncludes(Heading head){
+		if(head.hasAllCols()) return null;
+		List<String> includes = new ArrayList<String>();
+		for(Column col : head.columns()){
+			// calculations and functions refer to other (hidden) columns in the heading
+			if(col.hasCalculation() || col.getOp() != Operation.NONE) continue;
+			String field = col.getColumn();
+			if(field.equals("*")) return null;
+			if(field.startsWith("_")) continue; // _id, _index, _type and _score are not part of the source
+			if(!includes.contains(field)) includes.add(field);
+		}
+		return includes.toArray(new String[includes.size()]);
+	}
+	
 	/**
 	 * Builds all the headers (for all the resultsets, top and nested) needed during parsing of the result.
 	 * This index is used to determine if a field from a result must be added to a resultset or not
@@ -133,8 +207,9 @@ public class SearchHitParser {
 		Heading head = rs.getHeading();
 		List<Object> row = rs.getNewRow();
 		if(hit != null) addIdIndexAndType(hit.getId(), hit.getIndex(), hit.getType(), hit.getScore(), null/*hit.getHighlightFields()*/ , head, row);
-		if(source == null) return; // just return if source was not stored!
-		for(Map.Entry<String, ?> entry : source.entrySet()){
+		if(hit != null) addDocumentFields(hit.getFields(), head, row);
+		// source is null when it was not stored or not requested (SELECT _id ...), the row is added anyway
+		if(source != null) for(Map.Entry<String, ?> entry : source.entrySet()){
 			String key = entry.getKey();
 			String fullKey = parent.length()>0 ? parent+"."+ key : key;
 
@@ -262,6 +337,38 @@ public class SearchHitParser {
 		}*/
 	}
 	
+	/**
+	 * Adds the values of fields returned outside of the source (docvalue_fields) to the row. Doc values are
+	 * returned as lists and their numbers are converted to the type of the column they are put in.
+	 * @param fields
+	 * @param heading
+	 * @param row
+	 */
+	private void addDocumentFields(Map<String, DocumentField> fields, Heading heading, List<Object> row){
+		if(fields == null || fields.isEmpty()) return;
+		for(DocumentField field : fields.values()){
+			Column col = heading.getColumnByLabel(field.getName());
+			if(col == null || field.getValues().isEmpty()) continue;
+			if(field.getValues().size() > 1){
+				row.set(col.getIndex(), new ESArray(field.getValues()));
+				continue;
+			}
+			Object value = field.getValue();
+			if(value instanceof Number){
+				Number number = (Number)value;
+				switch(col.getSqlType()){
+					case Types.INTEGER : value = number.intValue(); break;
+					case Types.SMALLINT : value = number.shortValue(); break;
+					case Types.TINYINT : value = number.byteValue(); break;
+					case Types.FLOAT : value = number.floatValue(); break;
+					case Types.REAL : value = number.floatValue(); break;
+					default : break;
+				}
+			}
+			row.set(col.getIndex(), value);
+		}
+	}
+	
 	/**
 	 * Adds a single value to its correct place in the row 
 	 * @param key
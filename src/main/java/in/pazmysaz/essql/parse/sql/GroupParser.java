@@ -1,26 +1,49 @@
 package in.pazmysaz.essql.parse.sql;
 
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.script.Script;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
 import org.elasticsearch.search.aggregations.AggregationBuilder;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.BucketOrder;
+import org.elasticsearch.search.aggregations.PipelineAggregatorBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.DateHistogramValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.HistogramValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
 import org.elasticsearch.search.aggregations.bucket.filter.FilterAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.aggregations.bucket.histogram.HistogramAggregationBuilder;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.PercentilesAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.PercentilesConfig;
+import org.elasticsearch.search.sort.SortOrder;
 
 import com.facebook.presto.sql.tree.AstVisitor;
+import com.facebook.presto.sql.tree.ComparisonExpressionType;
 import com.facebook.presto.sql.tree.Expression;
 import com.facebook.presto.sql.tree.GroupingElement;
 
 import in.pazmysaz.essql.QueryState;
 import in.pazmysaz.essql.model.Column;
 import in.pazmysaz.essql.model.Heading;
+import in.pazmysaz.essql.model.OrderBy;
 import in.pazmysaz.essql.model.Utils;
 import in.pazmysaz.essql.model.Column.Operation;
+import in.pazmysaz.essql.model.expression.BooleanComparison;
+import in.pazmysaz.essql.model.expression.IComparison;
+import in.pazmysaz.essql.model.expression.SimpleComparison;
 
 import org.elasticsearch.search.aggregations.support.ValuesSourceAggregationBuilder;
 
@@ -32,7 +55,21 @@ import org.elasticsearch.search.aggregations.support.ValuesSourceAggregationBuil
  */
 public class GroupParser extends SelectParser {
 	
-	public TermsAggregationBuilder parse(List<GroupingElement> elements, QueryState state){
+	// name of the composite aggregation used to page through groups
+	public static final String COMPOSITE = "composite";
+	
+	// metrics added to the innermost terms aggregation by addMetrics
+	private static final Set<Operation> METRICS = EnumSet.of(Operation.AVG, Operation.COUNT, Operation.MAX, Operation.MIN, Operation.SUM, 
+			Operation.APPROX_COUNT_DISTINCT);
+	
+	/**
+	 * Parses the GROUP BY into nested terms aggregations or, when {@link Utils#PROP_GROUPING_MODE} is set to
+	 * {@link Utils#GROUPING_COMPOSITE}, a single composite aggregation which is paged through by the client
+	 * @param elements
+	 * @param state
+	 * @return
+	 */
+	public AbstractAggregationBuilder<?> parse(List<GroupingElement> elements, QueryState state){
 		List<Column> groups = new ArrayList<Column>();
 		for(GroupingElement grouping : elements){
 			for(Set<Expression> expressions : grouping.enumerateGroupingSets()){
@@ -42,25 +79,62 @@ public class GroupParser extends SelectParser {
 		
 		// to find case sensitive group by definitions which ES needs
 		for(Column groupby : groups){
-			if(groupby.getOp() != Operation.NONE){
+			if(groupby.getOp() != Operation.NONE && !groupby.isHistogram()){
 				state.addException("Can not use function '"+groupby.getAggName()+"' as GROUP BY, please use an alias to group by a function");
 				return null;
 			}
 		}
 		Heading.fixColumnReferences(state.originalSql()+";", "group by.+", "\\W", groups);
 		
-		for(Column g : groups){
+		for(int i=0; i<groups.size(); i++){
+			Column g = groups.get(i);
 			Column s = state.getHeading().getColumnByLabel(g.getAggName());
 			if(s == null ){
 				state.addException("Group by '"+g.getColumn()+"' not defined in SELECT");
+			}else if(s.isHistogram()){
+				// group on the (date) histogram defined in SELECT, either referenced through its alias or repeated
+				groups.set(i, s);
 			}else{
 				// add column from select to this group (when referenced through an alias)
 				g.setColumn(s.getColumn());
 			}
 		}
+		if(Utils.GROUPING_COMPOSITE.equalsIgnoreCase(state.getProperty(Utils.PROP_GROUPING_MODE, Utils.GROUPING_TERMS).trim())){
+			return buildCompositeAggregation(groups, state);
+		}
 		return buildAggregationQuery(groups, 0, state);
 	}
 	
+	/**
+	 * Creates a single composite aggregation with a terms source for each of the groups and all metrics 
+	 * added to it. Elasticsearch returns the buckets ordered by their keys in pages of fetch.size buckets
+	 * which allows all combinations of keys to be read using the after_key of the previous page instead of
+	 * being truncated to the size of a terms aggregation.
+	 * @param groups
+	 * @param state
+	 * @return
+	 */
+	private CompositeAggregationBuilder buildCompositeAggregation(List<Column> groups, QueryState state){
+		List<CompositeValuesSourceBuilder<?>> sources = new ArrayList<CompositeValuesSourceBuilder<?>>();
+		for(Column group : groups){
+			if(group.getOp() == Operation.DATE_HISTOGRAM){
+				DateHistogramValuesSourceBuilder source = new DateHistogramValuesSourceBuilder(group.getAggName()).field(group.getColumn());
+				String interval = (String)group.getArguments()[0];
+				if(isCalendarInterval(interval)) source.calendarInterval(new DateHistogramInterval(interval));
+				else source.fixedInterval(new DateHistogramInterval(interval));
+				if(group.getArguments()[1] != null) source.timeZone(ZoneId.of((String)group.getArguments()[1]));
+				sources.add(source);
+			}else if(group.getOp() == Operation.HISTOGRAM){
+				sources.add(new HistogramValuesSourceBuilder(group.getAggName()).field(group.getColumn())
+						.interval(((Number)group.getArguments()[0]).doubleValue()));
+			}else sources.add(new TermsValuesSourceBuilder(group.getAggName()).field(group.getColumn()));
+		}
+		CompositeAggregationBuilder result = AggregationBuilders.composite(COMPOSITE, sources);
+		result.size(state.getIntProp(Utils.PROP_FETCH_SIZE, 10000));
+		addMetrics(result, state.getHeading(), true);
+		return result;
+	}
+	
 	/**
 	 * Adds aggregations recursively
 	 * All metric columns are added to last aggregation
@@ -69,18 +143,230 @@ public class GroupParser extends SelectParser {
 	 * @param state
 	 * @return
 	 */
-	private TermsAggregationBuilder buildAggregationQuery(List<Column> aggs, int index, QueryState state){
+	private AbstractAggregationBuilder<?> buildAggregationQuery(List<Column> aggs, int index, QueryState state){
 		Column agg = aggs.get(index);
-		TermsAggregationBuilder result = null;
-		if(aggs.get(index).getOp() == Operation.NONE){
-			result = AggregationBuilders.terms(agg.getAggName()).field(agg.getColumn());
-			result.size(state.getIntProp(Utils.PROP_FETCH_SIZE, 10000));
+		AbstractAggregationBuilder<?> result = null;
+		if(agg.getOp() == Operation.DATE_HISTOGRAM){
+			result = buildDateHistogram(agg);
+		}else if(agg.getOp() == Operation.HISTOGRAM){
+			// only return buckets containing documents like terms do
+			result = AggregationBuilders.histogram(agg.getAggName()).field(agg.getColumn())
+					.interval(((Number)agg.getArguments()[0]).doubleValue()).minDocCount(1);
+		}else if(agg.getOp() == Operation.NONE){
+			result = AggregationBuilders.terms(agg.getAggName()).field(agg.getColumn())
+					.size(state.getIntProp(Utils.PROP_FETCH_SIZE, 10000));
 		}
 		if(index < aggs.size() - 1) result.subAggregation(buildAggregationQuery(aggs, index+1, state));
 		else addMetrics(result, state.getHeading(), true); 
 		return result;
 	}
 	
+	/**
+	 * Creates a date histogram for the column using its interval and (optional) time zone. Intervals
+	 * like 'day' and '1M' are calendar aware, others like '15m' or '90s' are treated as fixed intervals.
+	 * @param column
+	 * @return
+	 */
+	private DateHistogramAggregationBuilder buildDateHistogram(Column column){
+		DateHistogramAggregationBuilder result = AggregationBuilders.dateHistogram(column.getAggName()).field(column.getColumn());
+		String interval = (String)column.getArguments()[0];
+		if(isCalendarInterval(interval)) result.calendarInterval(new DateHistogramInterval(interval));
+		else result.fixedInterval(new DateHistogramInterval(interval));
+		if(column.getArguments()[1] != null) result.timeZone(ZoneId.of((String)column.getArguments()[1]));
+		return result.minDocCount(1);
+	}
+	
+	private boolean isCalendarInterval(String interval){
+		return DateHistogramAggregationBuilder.DATE_FIELD_UNITS.containsKey(interval);
+	}
+	
+	/**
+	 * Pushes the ordering down to the innermost terms, histogram or date_histogram aggregation when it only refers 
+	 * to the key of that aggregation and/or metrics calculated within it. With a limit the size of an innermost 
+	 * terms aggregation is reduced to the limit which makes elasticsearch return only the buckets needed. The shard 
+	 * size is kept at the original size so the buckets are as accurate as without the limit. Histograms have no 
+	 * size and always return all their buckets. The ordering must still be applied by the client to order rows 
+	 * from different outer buckets.
+	 * @param agg
+	 * @param orderings
+	 * @param limit
+	 * @param heading
+	 * @return true if the ordering was pushed down
+	 */
+	public boolean pushDownOrdering(AggregationBuilder agg, List<OrderBy> orderings, int limit, Heading heading){
+		if(orderings.isEmpty()) return false;
+		AggregationBuilder innermost = getInnermost(agg);
+		if(!(innermost instanceof TermsAggregationBuilder) && !(innermost instanceof HistogramAggregationBuilder) 
+				&& !(innermost instanceof DateHistogramAggregationBuilder)) return false;
+		
+		List<BucketOrder> orders = new ArrayList<BucketOrder>();
+		boolean orderedOnKey = false;
+		for(OrderBy ob : orderings){
+			Column col = heading.getColumn(ob.getIndex());
+			boolean asc = ob.getOrder() == SortOrder.ASC;
+			if(col.hasCalculation()) return false;
+			if((col.getOp() == Operation.NONE || col.isHistogram()) && col.getAggName().equals(innermost.getName())){
+				orders.add(BucketOrder.key(asc));
+				orderedOnKey = true;
+			}else if(col.getOp() == Operation.COUNT && col.getColumn().equals("*")){
+				orders.add(BucketOrder.count(asc));
+			}else if(METRICS.contains(col.getOp()) && isValidPath(col.getAggName())){
+				orders.add(BucketOrder.aggregation(col.getAggName(), asc));
+			}else return false;
+		}
+		// use the key as tie breaker to get a stable order
+		if(!orderedOnKey) orders.add(BucketOrder.key(true));
+		if(innermost instanceof HistogramAggregationBuilder){
+			((HistogramAggregationBuilder)innermost).order(orders);
+		}else if(innermost instanceof DateHistogramAggregationBuilder){
+			((DateHistogramAggregationBuilder)innermost).order(orders);
+		}else{
+			TermsAggregationBuilder terms = (TermsAggregationBuilder)innermost;
+			terms.order(orders);
+			if(limit > 0 && limit < terms.size()){
+				terms.shardSize(terms.size());
+				terms.size(limit);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Pushes the ordering down into the sources of a composite aggregation when it only refers to its keys.
+	 * The sources are moved in front in the order they are sorted on which makes elasticsearch return all
+	 * buckets in the requested order, the client does not have to order (and hold) all rows in that case.
+	 * With a limit the page size is reduced to the limit. 
+	 * @param agg
+	 * @param orderings
+	 * @param limit
+	 * @param heading
+	 * @return the composite aggregation with ordered sources or null if the ordering can not be pushed down
+	 */
+	public CompositeAggregationBuilder pushDownOrdering(CompositeAggregationBuilder agg, List<OrderBy> orderings, int limit, Heading heading){
+		List<CompositeValuesSourceBuilder<?>> sources = new ArrayList<CompositeValuesSourceBuilder<?>>(agg.sources());
+		List<CompositeValuesSourceBuilder<?>> ordered = new ArrayList<CompositeValuesSourceBuilder<?>>();
+		for(OrderBy ob : orderings){
+			Column col = heading.getColumn(ob.getIndex());
+			if(col.hasCalculation() || (col.getOp() != Operation.NONE && !col.isHistogram())) return null;
+			CompositeValuesSourceBuilder<?> source = null;
+			for(CompositeValuesSourceBuilder<?> s : sources) if(s.name().equals(col.getAggName())) source = s;
+			if(source == null) return null;
+			sources.remove(source);
+			ordered.add(source.order(ob.getOrder()));
+		}
+		ordered.addAll(sources);
+		CompositeAggregationBuilder result = AggregationBuilders.composite(agg.getName(), ordered);
+		for(AggregationBuilder metric : agg.getSubAggregations()) result.subAggregation(metric);
+		result.size(limit > 0 && limit < agg.size() ? limit : agg.size());
+		return result;
+	}
+	
+	/**
+	 * Pushes the HAVING clause down as a bucket_selector pipeline aggregation on the innermost bucket aggregation
+	 * which filters the buckets on the coordinating node. This is only possible when all comparisons refer to 
+	 * metrics calculated within the innermost aggregation and compare them to literals or each other.
+	 * @param agg
+	 * @param having
+	 * @return true if the HAVING clause was pushed down and does not have to be evaluated by the client 
+	 */
+	public boolean pushDownHaving(AggregationBuilder agg, IComparison having){
+		Map<String, String> bucketsPaths = new HashMap<String, String>();
+		String script = toScript(having, bucketsPaths);
+		if(script == null) return false;
+		getInnermost(agg).subAggregation(PipelineAggregatorBuilders.bucketSelector("having", bucketsPaths, new Script(script)));
+		return true;
+	}
+	
+	/**
+	 * Translates the comparison into a painless expression using the buckets paths as variables
+	 * @return the expression or null if the comparison can not be translated
+	 */
+	private String toScript(IComparison comparison, Map<String, String> bucketsPaths){
+		if(comparison instanceof BooleanComparison){
+			BooleanComparison bool = (BooleanComparison)comparison;
+			String left = toScript(bool.getLeft(), bucketsPaths);
+			String right = toScript(bool.getRight(), bucketsPaths);
+			if(left == null || right == null) return null;
+			return "("+left+(bool.isMust() ? " && " : " || ")+right+")";
+		}else if(comparison instanceof SimpleComparison){
+			SimpleComparison simple = (SimpleComparison)comparison;
+			String operator = getOperator(simple.getComparisonType());
+			String left = toVariable(simple.getLeftColumn(), bucketsPaths);
+			String right;
+			if(simple.getRightColumn() != null) right = toVariable(simple.getRightColumn(), bucketsPaths);
+			else if(simple.getRightValue() instanceof Long || simple.getRightValue() instanceof Integer) right = simple.getRightValue()+"L";
+			else if(simple.getRightValue() != null) right = Double.toString(simple.getRightValue().doubleValue());
+			else right = null;
+			if(operator == null || left == null || right == null) return null;
+			return left+" "+operator+" "+right;
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the painless operator for the types of comparison evaluated by {@link SimpleComparison}
+	 */
+	private String getOperator(ComparisonExpressionType type){
+		if(type == ComparisonExpressionType.EQUAL) return "==";
+		if(type == ComparisonExpressionType.GREATER_THAN) return ">";
+		if(type == ComparisonExpressionType.GREATER_THAN_OR_EQUAL) return ">=";
+		if(type == ComparisonExpressionType.LESS_THAN) return "<";
+		if(type == ComparisonExpressionType.LESS_THAN_OR_EQUAL) return "<=";
+		return null;
+	}
+	
+	/**
+	 * Registers the buckets path for a metric column 
+	 * @return the script variable holding the value of the metric or null if the column is not a metric
+	 */
+	private String toVariable(Column column, Map<String, String> bucketsPaths){
+		String path;
+		if(column.hasCalculation()) return null;
+		if(column.getOp() == Operation.COUNT && column.getColumn().equals("*")) path = "_count";
+		else if(METRICS.contains(column.getOp()) && isValidPath(column.getAggName())) path = column.getAggName();
+		else return null;
+		for(Map.Entry<String, String> entry : bucketsPaths.entrySet())
+			if(entry.getValue().equals(path)) return "params."+entry.getKey();
+		String var = "v"+bucketsPaths.size();
+		bucketsPaths.put(var, path);
+		return "params."+var;
+	}
+	
+	/**
+	 * @return the innermost bucket aggregation of the (possibly) nested bucket aggregations
+	 */
+	private AggregationBuilder getInnermost(AggregationBuilder agg){
+		AggregationBuilder innermost = agg;
+		for(AggregationBuilder child = agg; child != null; child = getBucketAggregation(child)) innermost = child;
+		return innermost;
+	}
+	
+	/**
+	 * @return the bucket aggregation nested within the provided aggregation or null if it has none
+	 */
+	private AggregationBuilder getBucketAggregation(AggregationBuilder agg){
+		for(AggregationBuilder sub : agg.getSubAggregations())
+			if(isBucketAggregation(sub)) return sub;
+		return null;
+	}
+	
+	/**
+	 * Checks if the aggregation is one of the (nested) bucket aggregations created for a GROUP BY by this parser
+	 * @param agg
+	 * @return
+	 */
+	public static boolean isBucketAggregation(AggregationBuilder agg){
+		return agg instanceof TermsAggregationBuilder || agg instanceof HistogramAggregationBuilder 
+				|| agg instanceof DateHistogramAggregationBuilder;
+	}
+	
+	/**
+	 * Checks if an aggregation name can be used within a buckets path which uses '>', '.' and '[' as separators
+	 */
+	protected static boolean isValidPath(String aggName){
+		return aggName.indexOf('>') < 0 && aggName.indexOf('.') < 0 && aggName.indexOf('[') < 0;
+	}
+	
 	/**
 	 * Adds a Filtered Aggregation used to aggregate all results for a query without having a Group By
 	 */
@@ -110,6 +396,13 @@ public class GroupParser extends SelectParser {
                 agg = AggregationBuilders.min(metric.getAggName());
             } else if(metric.getOp() == Operation.SUM) {
                 agg = AggregationBuilders.sum(metric.getAggName());
+            } else if(metric.getOp() == Operation.APPROX_COUNT_DISTINCT) {
+                agg = AggregationBuilders.cardinality(metric.getAggName()).precisionThreshold(((Number)metric.getArguments()[0]).longValue());
+            } else if(metric.getOp() == Operation.PERCENTILE) {
+                PercentilesAggregationBuilder percentiles = AggregationBuilders.percentiles(metric.getAggName())
+                		.percentiles(((Number)metric.getArguments()[0]).doubleValue());
+                if(SelectParser.PERCENTILES_HDR.equals(metric.getArguments()[1])) percentiles.percentilesConfig(new PercentilesConfig.Hdr());
+                agg = percentiles;
             }
 			if (agg != null) {
 		        String col = metric.getColumn();
@@ -126,12 +419,18 @@ public class GroupParser extends SelectParser {
 		}
 	}
 	
-	public TermsAggregationBuilder addDistinctAggregation(QueryState state){
+	/**
+	 * Creates a composite aggregation on the selected columns which can be paged through so distinct values
+	 * are not truncated to the fetch size
+	 * @param state
+	 * @return
+	 */
+	public CompositeAggregationBuilder addDistinctAggregation(QueryState state){
 		List<Column> distinct = new ArrayList<Column>();
 		for(Column s : state.getHeading().columns()){
-			if(s.getOp() == Operation.NONE && s.getCalculation() == null) distinct.add(s);
+			if((s.getOp() == Operation.NONE || s.isHistogram()) && s.getCalculation() == null) distinct.add(s);
 		}
-		return buildAggregationQuery(distinct, 0, state);
+		return buildCompositeAggregation(distinct, state);
 	}
 	
 	public FilterAggregationBuilder addCountDistinctAggregation(QueryState state){
@@ -28,6 +28,7 @@ import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
 import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
 
 /**
  * Interprets the parsed query and build the appropriate ES query (a {@link SearchRequestBuilder} instance). 
@@ -45,11 +46,15 @@ public class QueryParser extends AstVisitor<ParseResult, Object>{
 	private final static GroupParser groupParser = new GroupParser();
 	private final static OrderByParser orderOarser = new OrderByParser();
 	
+	/** key of the state value holding the values bound to the parameters (?) of the query */
+	static final String PARAMETERS = "parameters";
+	
 	private String sql;
 	private int maxRows = -1;
 	private Heading heading = new Heading();
 	private Properties props;
 	private Map<String, Map<String, Integer>> tableColumnInfo;
+	private Object[] parameters;
 	
 	/**
 	 * Builds the provided {@link SearchRequestBuilder} by parsing the {@link Query} using the properties provided.
@@ -63,6 +68,25 @@ public class QueryParser extends AstVisitor<ParseResult, Object>{
 	 */
 	public ParseResult parse(String sql, QueryBody queryBody, int maxRows, 
 			Properties props, Map<String, Map<String, Integer>> tableColumnInfo) throws SQLException{
+		return parse(sql, queryBody, null, maxRows, props, tableColumnInfo);
+	}
+	
+	/**
+	 * Builds the provided {@link SearchRequestBuilder} by parsing the {@link Query} using the properties provided
+	 * and binds the provided values to the parameters (?) used within its WHERE clause. This allows a query parsed 
+	 * once by Presto to be executed for any set of parameter values. 
+	 * @param sql the original sql statement
+	 * @param queryBody the Query parsed from the sql
+	 * @param parameters the values of the parameters in order of their position, may be null if the query has no parameters
+	 * @param maxRows the request to build
+	 * @param props a set of properties to use in certain cases
+	 * @param tableColumnInfo mapping from available tables to columns and their types
+	 * @return
+	 * @throws SQLException
+	 */
+	public ParseResult parse(String sql, QueryBody queryBody, Object[] parameters, int maxRows, 
+			Properties props, Map<String, Map<String, Integer>> tableColumnInfo) throws SQLException{
+		this.parameters = parameters;
 		this.sql = sql.replace("\r", " ").replace("\n", " ");// TODO: this removes linefeeds from string literals as well!
 		this.props = props;
 		this.maxRows = maxRows;
@@ -81,6 +105,7 @@ public class QueryParser extends AstVisitor<ParseResult, Object>{
 	protected ParseResult visitQuerySpecification(QuerySpecification node, Object obj){
 		this.heading = new Heading();
 		BasicQueryState state = new BasicQueryState(sql, heading, props);
+		state.setKeyValue(PARAMETERS, parameters);
 		int limit = -1;
 		AbstractAggregationBuilder aggregation = null;
 		QueryBuilder query = null;
@@ -141,6 +166,8 @@ public class QueryParser extends AstVisitor<ParseResult, Object>{
 		// parse group by and create aggregations accordingly
 		if(node.getGroupBy() != null && node.getGroupBy().isPresent() && node.getGroupBy().get().getGroupingElements().size() > 0){
 			aggregation = groupParser.parse(node.getGroupBy().get().getGroupingElements(), state);
+		}else if(heading.hasHistogram() && !node.getSelect().isDistinct()){
+			state.addException("DATE_TRUNC, DATE_HISTOGRAM and HISTOGRAM can only be used in combination with GROUP BY or DISTINCT");
 		}else if(heading.aggregateOnly()){
 			if(state.isCountDistinct())
 				// create aggregation in case of COUNT DISTINCT
@@ -150,13 +177,15 @@ public class QueryParser extends AstVisitor<ParseResult, Object>{
 		}
 		if(state.hasException()) return new ParseResult(state.getException());
 		
-		// parse Having (is executed client side after results have been fetched)
+		// parse Having (pushed down to elasticsearch when possible and executed client side otherwise)
 		if(node.getHaving().isPresent()){
 			having = havingParser.process(node.getHaving().get(), state);
+			if(having != null && GroupParser.isBucketAggregation(aggregation) && subQuery == null
+					&& groupParser.pushDownHaving(aggregation, having)) having = null;
 		}
 
 		// parse ORDER BY
-		if(node.getOrderBy().isEmpty()){
+		if(!node.getOrderBy().isEmpty()){
 			for(SortItem si : node.getOrderBy()/*.get().getSortItems()*/){
 				OrderBy ob = si.accept(orderOarser, state);
 				if(state.hasException()) return new ParseResult(state.getException());
@@ -165,6 +194,19 @@ public class QueryParser extends AstVisitor<ParseResult, Object>{
 		}
 		if(state.hasException()) return new ParseResult(state.getException());
 		
+		// let elasticsearch order the buckets so it only has to return those within the limit. This is not
+		// possible when buckets are filtered afterwards by HAVING or when merged with a sub query
+		if(GroupParser.isBucketAggregation(aggregation) && !node.getHaving().isPresent() && subQuery == null){
+			groupParser.pushDownOrdering(aggregation, orderings, limit, heading);
+		}else if(aggregation instanceof CompositeAggregationBuilder && !node.getHaving().isPresent() && subQuery == null){
+			// composite buckets are returned in the order of their sources so no ordering is left for the client 
+			CompositeAggregationBuilder ordered = groupParser.pushDownOrdering((CompositeAggregationBuilder)aggregation, orderings, limit, heading);
+			if(ordered != null){
+				aggregation = ordered;
+				orderings.clear();
+			}
+		}
+		
 		ParseResult result = new ParseResult(heading, state.getSources(), query, aggregation, having, orderings, limit, useCache, requestScore);
 		if(subQuery != null)try{
 			if(subQuery.getAggregation() == null && result.getAggregation() == null)
@@ -213,7 +255,7 @@ public class QueryParser extends AstVisitor<ParseResult, Object>{
 				QuerySource qs = sources.get(i);
 				QueryParser subQueryParser = new QueryParser();
 				try {
-					subQueryInfo = subQueryParser.parse(qs.getSource(), qs.getQuery(), maxRows, props, tableColumnInfo);
+					subQueryInfo = subQueryParser.parse(qs.getSource(), qs.getQuery(), parameters, maxRows, props, tableColumnInfo);
 				} catch (SQLException e) {
 					state.addException("Unable to parse sub-query due to: "+e.getMessage());
 				}
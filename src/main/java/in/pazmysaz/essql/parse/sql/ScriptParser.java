@@ -0,0 +1,147 @@
+package in.pazmysaz.essql.parse.sql;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+
+import com.facebook.presto.sql.tree.*;
+import com.facebook.presto.sql.tree.ArithmeticUnaryExpression.Sign;
+
+import in.pazmysaz.essql.model.Heading;
+
+/**
+ * A Presto {@link AstVisitor} implementation that compiles the assignments of an UPDATE ... SET clause into a
+ * painless script which can be executed by an update_by_query. Literals are passed to the script as parameters
+ * and fields of the document being updated can be used within simple arithmetic (+, -, *, / and %). All values
+ * are calculated before any of the fields is assigned which means that each expression sees the document as it
+ * was before the update.
+ *
+ * @author cversloot
+ *
+ */
+public class ScriptParser extends AstVisitor<String, Map<String, Object>>{
+
+	private static final String LANG = "painless";
+
+	private final String originalSql;
+
+	/**
+	 * @param originalSql the SET clause the assignments were parsed from, used to find the original case of field names
+	 */
+	public ScriptParser(String originalSql){
+		this.originalSql = originalSql;
+	}
+
+	/**
+	 * Compiles the assignments into a single script
+	 * @param assignments the expressions to assign mapped by the (possibly nested) field to assign them to
+	 * @return the script or null if one of the expressions can not be compiled in which case the update must
+	 * be executed by the client
+	 */
+	public Script parse(Map<String, Expression> assignments){
+		Map<String, Object> params = new HashMap<String, Object>();
+		StringBuilder values = new StringBuilder();
+		StringBuilder assign = new StringBuilder();
+		int i = 0;
+		for(Map.Entry<String, Expression> assignment : assignments.entrySet()){
+			String value = process(assignment.getValue(), params);
+			if(value == null) return null;
+			values.append("def v").append(i).append(" = ").append(value).append("; ");
+
+			// create the objects holding nested fields if they do not exist
+			String[] path = assignment.getKey().split("\\.");
+			String target = "ctx._source";
+			for(int k=0; k<path.length-1; k++){
+				target += field(path[k]);
+				assign.append("if(").append(target).append(" == null) ").append(target).append(" = new HashMap(); ");
+			}
+			assign.append(target).append(field(path[path.length-1])).append(" = v").append(i).append("; ");
+			i++;
+		}
+		return new Script(ScriptType.INLINE, LANG, (values.toString() + assign.toString()).trim(), params);
+	}
+
+	@Override
+	protected String visitArithmeticBinary(ArithmeticBinaryExpression node, Map<String, Object> params){
+		String left = process(node.getLeft(), params);
+		String right = process(node.getRight(), params);
+		if(left == null || right == null) return null;
+		String operator;
+		switch(node.getType()){
+			case ADD : operator = "+"; break;
+			case SUBTRACT : operator = "-"; break;
+			case MULTIPLY : operator = "*"; break;
+			case DIVIDE : operator = "/"; break;
+			case MODULUS : operator = "%"; break;
+			default : return null;
+		}
+		return "("+left+" "+operator+" "+right+")";
+	}
+
+	@Override
+	protected String visitArithmeticUnary(ArithmeticUnaryExpression node, Map<String, Object> params){
+		String value = process(node.getValue(), params);
+		if(value == null) return null;
+		return node.getSign() == Sign.MINUS ? "-("+value+")" : value;
+	}
+
+	@Override
+	protected String visitIdentifier(Identifier node, Map<String, Object> params){
+		return source(node.getName());
+	}
+
+	@Override
+	protected String visitDereferenceExpression(DereferenceExpression node, Map<String, Object> params){
+		return source(SelectParser.visitDereferenceExpression(node));
+	}
+
+	@Override
+	protected String visitLongLiteral(LongLiteral node, Map<String, Object> params){
+		return param(node.getValue(), params);
+	}
+
+	@Override
+	protected String visitDoubleLiteral(DoubleLiteral node, Map<String, Object> params){
+		return param(node.getValue(), params);
+	}
+
+	@Override
+	protected String visitBooleanLiteral(BooleanLiteral node, Map<String, Object> params){
+		return param(node.getValue(), params);
+	}
+
+	@Override
+	protected String visitStringLiteral(StringLiteral node, Map<String, Object> params){
+		return param(node.getValue(), params);
+	}
+
+	@Override
+	protected String visitNullLiteral(NullLiteral node, Map<String, Object> params){
+		return "null";
+	}
+
+	/**
+	 * Adds the value as a parameter of the script and returns the reference to it
+	 */
+	private String param(Object value, Map<String, Object> params){
+		String name = "p"+params.size();
+		params.put(name, value);
+		return "params."+name;
+	}
+
+	/**
+	 * Returns the reference to the (possibly nested) field within the source of the document
+	 */
+	private String source(String name){
+		StringBuilder ref = new StringBuilder("ctx._source");
+		for(String part : Heading.findOriginal(originalSql, name, "\\b", "\\b").split("\\.")) ref.append(field(part));
+		return ref.toString();
+	}
+
+	private static String field(String name){
+		return "['"+name.replace("\\", "\\\\").replace("'", "\\'")+"']";
+	}
+
+}
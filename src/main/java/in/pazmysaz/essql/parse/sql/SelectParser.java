@@ -1,5 +1,8 @@
 package in.pazmysaz.essql.parse.sql;
 
+import java.time.ZoneId;
+import java.util.List;
+
 import com.facebook.presto.sql.tree.*;
 import com.facebook.presto.sql.tree.ArithmeticUnaryExpression.Sign;
 
@@ -8,6 +11,7 @@ import in.pazmysaz.essql.QueryState;
 import in.pazmysaz.essql.model.Column;
 import in.pazmysaz.essql.model.Heading;
 import in.pazmysaz.essql.model.QuerySource;
+import in.pazmysaz.essql.model.Utils;
 import in.pazmysaz.essql.model.Column.Operation;
 import in.pazmysaz.essql.model.expression.ColumnReference;
 import in.pazmysaz.essql.model.expression.ICalculation;
@@ -23,6 +27,10 @@ import in.pazmysaz.essql.model.expression.SingleValue;
  *
  */
 public class SelectParser extends AstVisitor<Object, QueryState>{
+	
+	// methods used to calculate percentiles
+	public static final String PERCENTILES_TDIGEST = "tdigest";
+	public static final String PERCENTILES_HDR = "hdr";
 
 	@Override
 	protected Object visitSelectItem(SelectItem node, QueryState state){
@@ -33,7 +41,7 @@ public class SelectParser extends AstVisitor<Object, QueryState>{
 				String alias = null;
 				if(sc.getAlias().isPresent()) alias = sc.getAlias().get()/*.getValue()*/;
 				column.setAlias(alias);
-				Column col2 = state.getHeading().getColumnByNameAndOp(column.getColumn(), column.getOp());
+				Column col2 = state.getHeading().getColumnByNameAndOp(column);
 				if(col2 != null){
 					if(!col2.isVisible()) {
 						state.getHeading().remove(col2);
@@ -68,6 +76,10 @@ public class SelectParser extends AstVisitor<Object, QueryState>{
 			FunctionCall fc = (FunctionCall)node;
 			String operator = fc.getName().toString();
 			if(operator.equalsIgnoreCase("count") && fc.isDistinct()) operator = "COUNT_DISTINCT";
+			if(operator.equalsIgnoreCase("date_trunc") || operator.equalsIgnoreCase("date_histogram") 
+					|| operator.equalsIgnoreCase("histogram")) return visitHistogram(fc, operator.toLowerCase(), state);
+			if(operator.equalsIgnoreCase("approx_count_distinct") || operator.equalsIgnoreCase("percentile") 
+					|| operator.equalsIgnoreCase("approx_percentile")) return visitApproximation(fc, operator.toLowerCase(), state);
 			
 			String column;
 			if(fc.getArguments().size() == 0) column = "*";
@@ -101,6 +113,127 @@ public class SelectParser extends AstVisitor<Object, QueryState>{
 		return null;
 	}
 	
+	/**
+	 * Parses the functions used to group on (date) histogram buckets: DATE_TRUNC(unit, field [, time_zone]), 
+	 * DATE_HISTOGRAM(field, interval [, time_zone]) and HISTOGRAM(field, interval). The interval and time zone
+	 * are set as arguments of the column.
+	 * @param fc
+	 * @param function
+	 * @param state
+	 * @return
+	 */
+	private Column visitHistogram(FunctionCall fc, String function, QueryState state){
+		List<Expression> args = fc.getArguments();
+		boolean trunc = function.equals("date_trunc");
+		boolean numeric = function.equals("histogram");
+		if(args.size() < 2 || args.size() > (numeric ? 2 : 3)){
+			state.addException("Invalid number of arguments for function '"+function+"'");
+			return null;
+		}
+		Expression interval = trunc ? args.get(0) : args.get(1);
+		String column = getField(trunc ? args.get(1) : args.get(0), function, state);
+		if(column == null) return null;
+		
+		if(numeric){
+			Number value = getNumber(interval);
+			if(value == null || value.doubleValue() <= 0){
+				state.addException("Interval of function '"+function+"' must be a positive number");
+				return null;
+			}
+			return createColumn(column, Operation.HISTOGRAM, state, "select.+", ".+from").setArguments(value);
+		}
+		
+		if(!(interval instanceof StringLiteral)){
+			state.addException("Interval of function '"+function+"' must be a string such as 'day' or '15m'");
+			return null;
+		}
+		String value = ((StringLiteral)interval).getValue().trim();
+		if(trunc) value = value.toLowerCase();
+		String timeZone = null;
+		if(args.size() > 2){
+			if(!(args.get(2) instanceof StringLiteral)){
+				state.addException("Time zone of function '"+function+"' must be a string such as 'UTC' or 'Europe/Amsterdam'");
+				return null;
+			}
+			timeZone = ((StringLiteral)args.get(2)).getValue().trim();
+			try{
+				ZoneId.of(timeZone);
+			}catch(Exception e){
+				state.addException("Unknown time zone '"+timeZone+"' used in function '"+function+"'");
+				return null;
+			}
+		}
+		return createColumn(column, Operation.DATE_HISTOGRAM, state, "select.+", ".+from").setArguments(value, timeZone);
+	}
+	
+	/**
+	 * Parses the approximating aggregation functions APPROX_COUNT_DISTINCT(field [, precision_threshold])
+	 * and PERCENTILE(field, percent [, method]) (or APPROX_PERCENTILE) with method 'tdigest' (default) or 'hdr'.
+	 * The precision threshold defaults to {@link Utils#PROP_PRECISION_THRESHOLD}.
+	 * @param fc
+	 * @param function
+	 * @param state
+	 * @return
+	 */
+	private Column visitApproximation(FunctionCall fc, String function, QueryState state){
+		List<Expression> args = fc.getArguments();
+		boolean distinct = function.equals("approx_count_distinct");
+		if(args.size() < (distinct ? 1 : 2) || args.size() > (distinct ? 2 : 3)){
+			state.addException("Invalid number of arguments for function '"+function+"'");
+			return null;
+		}
+		String column = getField(args.get(0), function, state);
+		if(column == null) return null;
+		
+		if(distinct){
+			int precision = state.getIntProp(Utils.PROP_PRECISION_THRESHOLD, 3000);
+			if(args.size() > 1){
+				if(!(args.get(1) instanceof LongLiteral)){
+					state.addException("Precision threshold of function '"+function+"' must be an integer");
+					return null;
+				}
+				precision = (int)((LongLiteral)args.get(1)).getValue();
+			}
+			return createColumn(column, Operation.APPROX_COUNT_DISTINCT, state, "select.+", ".+from").setArguments(precision);
+		}
+		
+		Number percent = getNumber(args.get(1));
+		if(percent == null || percent.doubleValue() < 0 || percent.doubleValue() > 100){
+			state.addException("Percentile of function '"+function+"' must be a number between 0 and 100");
+			return null;
+		}
+		String method = PERCENTILES_TDIGEST;
+		if(args.size() > 2){
+			if(args.get(2) instanceof StringLiteral) method = ((StringLiteral)args.get(2)).getValue().trim().toLowerCase();
+			if(!method.equals(PERCENTILES_TDIGEST) && !method.equals(PERCENTILES_HDR)){
+				state.addException("Method of function '"+function+"' must be either '"+PERCENTILES_TDIGEST+"' or '"+PERCENTILES_HDR+"'");
+				return null;
+			}
+		}
+		// the default method is not set which makes columns using it explicitly or implicitly equal
+		return createColumn(column, Operation.PERCENTILE, state, "select.+", ".+from").setArguments(percent, 
+				method.equals(PERCENTILES_HDR) ? method : null);
+	}
+	
+	/**
+	 * @return the name of the field the expression refers to or null (with an exception set) if it is not a field
+	 */
+	private String getField(Expression field, String function, QueryState state){
+		if(field instanceof DereferenceExpression) return visitDereferenceExpression((DereferenceExpression)field);
+		if(field instanceof Identifier) return ((Identifier)field).getName();
+		state.addException("Function '"+function+"' must be applied to a field");
+		return null;
+	}
+	
+	/**
+	 * @return the value of a numeric literal or null if the expression is not a number
+	 */
+	private Number getNumber(Expression expression){
+		if(expression instanceof LongLiteral) return ((LongLiteral)expression).getValue();
+		if(expression instanceof DoubleLiteral) return ((DoubleLiteral)expression).getValue();
+		return null;
+	}
+	
 	public static String visitDereferenceExpression(DereferenceExpression node){
 		if(node.getBase() instanceof Identifier) {
 			return ((Identifier)node.getBase()).getName()/*.getValue()*/+"."+node.getFieldName()/*.getValue()*/;
@@ -143,7 +276,7 @@ public class SelectParser extends AstVisitor<Object, QueryState>{
 				Column column = selectParser.visitExpression(se.getBase(), state);
 				try{
 					int offset = Integer.parseInt( se.getIndex().toString() );
-					Column col2 = state.getHeading().getColumnByNameAndOp(column.getColumn(), column.getOp());
+					Column col2 = state.getHeading().getColumnByNameAndOp(column);
 					if(col2 != null) return new ColumnReference(col2, offset);
 					else {
 						state.getHeading().add(column);
@@ -155,7 +288,7 @@ public class SelectParser extends AstVisitor<Object, QueryState>{
 				}
 			}else if(node instanceof Expression){
 				Column column = selectParser.visitExpression((Expression)node, state);
-				Column col2 = state.getHeading().getColumnByNameAndOp(column.getColumn(), column.getOp());
+				Column col2 = state.getHeading().getColumnByNameAndOp(column);
 				if(col2 != null) return new ColumnReference(col2);
 				else {
 					state.getHeading().add(column);
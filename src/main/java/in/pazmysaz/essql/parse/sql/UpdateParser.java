@@ -40,7 +40,8 @@ public class UpdateParser extends AstVisitor<List<Object>, QueryState>{
 	}
 
 	/**
-	 * Parses the list with values to insert and returns them as Objects
+	 * Parses the list with values to insert and returns them as Objects. Parameters (?) of a prepared 
+	 * statement are returned as the {@link Parameter} to bind a value to.
 	 */
 	@Override
 	public List<Object> visitValues(Values values, QueryState state){
@@ -50,6 +51,10 @@ public class UpdateParser extends AstVisitor<List<Object>, QueryState>{
 			if(rowExpression instanceof Row) {
 				Row row = (Row)rowExpression;
 				for(Expression rowValue : row.getItems()){
+					if(rowValue instanceof Parameter){
+						result.add(rowValue);
+						continue;
+					}
 					if(!(rowValue instanceof Literal)) {
 						state.addException("Unable to parse non-literal value : "+rowValue);
 						return result;
@@ -58,6 +63,8 @@ public class UpdateParser extends AstVisitor<List<Object>, QueryState>{
 				}
 			}else if (rowExpression instanceof Literal){
 				result.add(getObject((Literal)rowExpression));
+			}else if (rowExpression instanceof Parameter){
+				result.add(rowExpression);
 			}else {
 				state.addException("Unknown VALUES type "+rowExpression.getClass()+" encountered");
 				return null;
@@ -88,7 +88,9 @@ public class WhereParser extends AstVisitor<QueryWrapper, QueryState>{
 				state.addException("Matching document _id using LIKE is not supported");
 				return null;
 			}
-			String query = ((StringLiteral)((LikePredicate)node).getPattern()).getValue();
+			Expression pattern = ((LikePredicate)node).getPattern();
+			String query = pattern instanceof Parameter ? String.valueOf(getLiteralValue(pattern, state)) : ((StringLiteral)pattern).getValue();
+			if(state.hasException()) return null;
 			if(fat.getFieldType() == Types.REF) 
 				return new QueryWrapper(queryForString(field, query), field.split("\\.")[0]);
 			return new QueryWrapper(queryForString(field, query));
@@ -215,10 +217,16 @@ public class WhereParser extends AstVisitor<QueryWrapper, QueryState>{
 	 * Extracts the literal value from an expression (if expression is supported)
 	 * @param expression
 	 * @param state
-	 * @return a Long, Boolean, Double or String object
+	 * @return a Long, Boolean, Double or String object or the value bound to a parameter (?)
 	 */
 	private Object getLiteralValue(Expression expression, QueryState state){
-		if(expression instanceof LongLiteral) return ((LongLiteral)expression).getValue();
+		if(expression instanceof Parameter){
+			int position = ((Parameter)expression).getPosition();
+			Object[] params = (Object[])state.getValue(QueryParser.PARAMETERS);
+			Object value = params == null || position >= params.length ? null : params[position];
+			if(value == null) state.addException("No value specified for parameter "+(position+1)+" (NULL is not supported within a WHERE clause)");
+			return value;
+		}else if(expression instanceof LongLiteral) return ((LongLiteral)expression).getValue();
 		else if(expression instanceof BooleanLiteral) return ((BooleanLiteral)expression).getValue();
 		else if(expression instanceof DoubleLiteral) return ((DoubleLiteral)expression).getValue();
 		else if(expression instanceof StringLiteral) return ((StringLiteral)expression).getValue();
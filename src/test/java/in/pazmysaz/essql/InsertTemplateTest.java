@@ -0,0 +1,90 @@
+package in.pazmysaz.essql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.junit.Test;
+
+import com.facebook.presto.sql.tree.Parameter;
+
+import in.pazmysaz.essql.model.Column;
+import in.pazmysaz.essql.model.Heading;
+
+/**
+ * Checks the index requests created by binding parameter sets to an {@link InsertTemplate}
+ *
+ * @author cversloot
+ *
+ */
+public class InsertTemplateTest {
+
+	private static Heading heading(String... columns){
+		Heading heading = new Heading();
+		for(String column : columns) heading.add(new Column(column));
+		return heading;
+	}
+
+	@Test
+	public void testLiteralsWithIdAndNestedFields() throws SQLException{
+		InsertTemplate template = new InsertTemplate("myindex", "mytype", heading("_id", "name", "address.city", "address.zip"),
+				Arrays.<Object>asList("1", "bob", "Amsterdam", 1234L));
+		assertEquals(1, template.rows());
+		assertEquals(0, template.parameters());
+
+		IndexRequest request = template.bind(0, null);
+		assertEquals("myindex", request.index());
+		assertEquals("mytype", request.type());
+		assertEquals("1", request.id());
+		Map<String, Object> address = new HashMap<String, Object>();
+		address.put("city", "Amsterdam");
+		address.put("zip", 1234);
+		Map<String, Object> source = new HashMap<String, Object>();
+		source.put("name", "bob");
+		source.put("address", address);
+		assertEquals(source, request.sourceAsMap());
+	}
+
+	@Test
+	public void testParametersBoundPerRow() throws SQLException{
+		InsertTemplate template = new InsertTemplate("myindex", "mytype", heading("a", "b"),
+				Arrays.<Object>asList(new Parameter(0), "x", new Parameter(1), new Parameter(2)));
+		assertEquals(2, template.rows());
+		assertEquals(3, template.parameters());
+
+		Object[] params = new Object[]{"first", 7, true};
+		IndexRequest row0 = template.bind(0, params);
+		assertNull(row0.id());
+		assertEquals("first", row0.sourceAsMap().get("a"));
+		assertEquals("x", row0.sourceAsMap().get("b"));
+		IndexRequest row1 = template.bind(1, params);
+		assertEquals(7, row1.sourceAsMap().get("a"));
+		assertEquals(true, row1.sourceAsMap().get("b"));
+	}
+
+	@Test
+	public void testNullIdParameterGeneratesId() throws SQLException{
+		InsertTemplate template = new InsertTemplate("myindex", "mytype", heading("_id", "a"),
+				Arrays.<Object>asList(new Parameter(0), new Parameter(1)));
+		IndexRequest request = template.bind(0, new Object[]{null, "v"});
+		assertNull(request.id());
+		assertEquals(1, request.sourceAsMap().size());
+	}
+
+	@Test(expected = SQLException.class)
+	public void testMissingParameter() throws SQLException{
+		InsertTemplate template = new InsertTemplate("myindex", "mytype", heading("a", "b"),
+				Arrays.<Object>asList(new Parameter(0), new Parameter(1)));
+		template.bind(0, new Object[]{"only one"});
+	}
+
+	@Test(expected = SQLException.class)
+	public void testValuesNotMatchingColumns() throws SQLException{
+		new InsertTemplate("myindex", "mytype", heading("a", "b"), Arrays.<Object>asList("1", "2", "3"));
+	}
+}
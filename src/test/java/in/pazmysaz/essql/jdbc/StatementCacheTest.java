@@ -0,0 +1,82 @@
+package in.pazmysaz.essql.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.facebook.presto.sql.tree.Statement;
+
+/**
+ * Checks the LRU eviction and hit/miss counters of the {@link StatementCache}
+ *
+ * @author cversloot
+ *
+ */
+public class StatementCacheTest {
+
+	private static final String Q1 = "SELECT a FROM t1";
+	private static final String Q2 = "SELECT b FROM t2";
+	private static final String Q3 = "SELECT c FROM t3";
+
+	@Test
+	public void testHitReturnsCachedStatement(){
+		StatementCache cache = new StatementCache(2);
+		Statement first = cache.get(Q1);
+		assertSame(first, cache.get(Q1));
+		assertSame(first, cache.get("  "+Q1+" "));
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted(){
+		StatementCache cache = new StatementCache(2);
+		cache.get(Q1);
+		cache.get(Q2);
+		cache.get(Q1); // Q2 is now the least recently used
+		cache.get(Q3);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+
+		cache.get(Q1);
+		assertEquals(2, cache.getHits());
+		cache.get(Q2);
+		assertEquals(2, cache.getHits());
+		assertEquals(4, cache.getMisses());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testOnlyQueriesCached(){
+		StatementCache cache = new StatementCache(2);
+		String insert = "INSERT INTO t1 (a) VALUES (1)";
+		assertNotSame(cache.get(insert), cache.get(insert));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testDisabled(){
+		StatementCache cache = new StatementCache(0);
+		assertNotSame(cache.get(Q1), cache.get(Q1));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testClear(){
+		StatementCache cache = new StatementCache(2);
+		cache.get(Q1);
+		cache.clear();
+		cache.get(Q1);
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.size());
+	}
+}
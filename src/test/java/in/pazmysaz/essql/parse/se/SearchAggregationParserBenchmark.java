@@ -0,0 +1,111 @@
+package in.pazmysaz.essql.parse.se;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.aggregations.BucketOrder;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.InternalAggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.StringTerms;
+import org.elasticsearch.search.aggregations.metrics.InternalAvg;
+import org.elasticsearch.search.aggregations.metrics.InternalMax;
+import org.elasticsearch.search.aggregations.metrics.InternalSum;
+import org.elasticsearch.search.aggregations.metrics.InternalValueCount;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import in.pazmysaz.essql.ESResultSet;
+import in.pazmysaz.essql.model.Column;
+import in.pazmysaz.essql.model.Column.Operation;
+import in.pazmysaz.essql.model.Heading;
+
+/**
+ * Measures the parsing of the result of a three level GROUP BY into a resultset. The aggregation tree is
+ * built once from synthetic terms and metric aggregations with fanout^3 leaf buckets, each holding an
+ * avg, sum, max and count metric.
+ *
+ * Run using: mvn test-compile exec:exec -Dbenchmark=SearchAggregationParserBenchmark
+ *
+ * @author cversloot
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchAggregationParserBenchmark {
+
+	private static final String[] GROUPS = new String[]{"country", "city", "category"};
+
+	@Param({"20", "80"})
+	public int fanout;
+
+	private StringTerms terms;
+	private SearchAggregationParser parser;
+	private Heading heading;
+
+	@Setup(Level.Trial)
+	public void createAggregations(){
+		terms = createTerms(0, new Random(42));
+		heading = new Heading();
+		for(String group : GROUPS) heading.add(new Column(group));
+		heading.add(new Column("price", Operation.AVG));
+		heading.add(new Column("price", Operation.SUM));
+		heading.add(new Column("stock", Operation.MAX));
+		heading.add(new Column("*", Operation.COUNT));
+		heading.buildIndex();
+		parser = new SearchAggregationParser();
+	}
+
+	private StringTerms createTerms(int level, Random random){
+		List<StringTerms.Bucket> buckets = new ArrayList<StringTerms.Bucket>(fanout);
+		for(int i=0; i<fanout; i++){
+			List<InternalAggregation> aggs = new ArrayList<InternalAggregation>();
+			if(level < GROUPS.length - 1){
+				aggs.add(createTerms(level + 1, random));
+			}else{
+				long count = 1 + random.nextInt(1000);
+				aggs.add(new InternalAvg("avg(price)", random.nextDouble() * count, count, DocValueFormat.RAW, Collections.<String, Object>emptyMap()));
+				aggs.add(new InternalSum("sum(price)", random.nextDouble() * count, DocValueFormat.RAW, Collections.<String, Object>emptyMap()));
+				aggs.add(new InternalMax("max(stock)", random.nextInt(500), DocValueFormat.RAW, Collections.<String, Object>emptyMap()));
+				aggs.add(new InternalValueCount("count(*)", count, Collections.<String, Object>emptyMap()));
+			}
+			buckets.add(new StringTerms.Bucket(new BytesRef(GROUPS[level]+" "+i), 1 + random.nextInt(1000),
+					InternalAggregations.from(aggs), false, 0, DocValueFormat.RAW));
+		}
+		return new StringTerms(GROUPS[level], BucketOrder.key(true), BucketOrder.key(true), fanout, 1,
+				Collections.<String, Object>emptyMap(), DocValueFormat.RAW, fanout, false, 0, buckets, 0);
+	}
+
+	@Benchmark
+	public ESResultSet parse() throws SQLException{
+		ESResultSet rs = new ESResultSet(heading, 0, heading.getColumnCount());
+		parser.parseAggregation(terms, rs);
+		return rs;
+	}
+
+	public static void main(String[] args) throws RunnerException{
+		new Runner(new OptionsBuilder().include(SearchAggregationParserBenchmark.class.getSimpleName()).build()).run();
+	}
+}
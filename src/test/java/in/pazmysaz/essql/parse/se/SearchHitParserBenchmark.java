@@ -0,0 +1,114 @@
+package in.pazmysaz.essql.parse.se;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import in.pazmysaz.essql.ESResultSet;
+import in.pazmysaz.essql.model.Column;
+import in.pazmysaz.essql.model.Heading;
+
+/**
+ * Measures the parsing of a page of search hits with and without a {@link ProjectionPlan}. The documents
+ * contain nested objects, arrays of scalars and a number of fields that are not selected. Hits are created
+ * for every invocation because a SearchHit caches its parsed source.
+ *
+ * Run using: mvn test-compile exec:exec -Dbenchmark=SearchHitParserBenchmark
+ *
+ * @author cversloot
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchHitParserBenchmark {
+
+	private static final String[] SELECT = new String[]{"name", "price", "stock", "tags",
+			"supplier.name", "supplier.address.city", "supplier.address.country", "dimensions.weight"};
+
+	@Param({"true", "false"})
+	public boolean compiled;
+
+	@Param({"1000"})
+	public int pageSize;
+
+	private BytesReference[] sources;
+	private SearchHitParser parser;
+	private Heading heading;
+	private SearchHits hits;
+
+	@Setup(Level.Trial)
+	public void createDocuments(){
+		Random random = new Random(42);
+		sources = new BytesReference[pageSize];
+		for(int i=0; i<pageSize; i++){
+			StringBuilder sb = new StringBuilder("{");
+			sb.append("\"name\":\"product ").append(i).append("\",");
+			sb.append("\"description\":\"a somewhat longer description of product ").append(i).append(" which is not selected\",");
+			sb.append("\"price\":").append(random.nextInt(10000)/100.0).append(",");
+			sb.append("\"stock\":").append(random.nextInt(500)).append(",");
+			sb.append("\"created\":\"2020-0").append(1+random.nextInt(9)).append("-1").append(random.nextInt(9)).append("\",");
+			sb.append("\"tags\":[\"tag").append(random.nextInt(20)).append("\",\"tag").append(random.nextInt(20)).append("\"],");
+			sb.append("\"supplier\":{\"name\":\"supplier ").append(random.nextInt(100)).append("\",\"rating\":").append(random.nextInt(5))
+				.append(",\"address\":{\"street\":\"street ").append(i).append("\",\"city\":\"city ").append(random.nextInt(50))
+				.append("\",\"country\":\"NL\",\"zip\":\"").append(1000+random.nextInt(8999)).append("AB\"}},");
+			sb.append("\"dimensions\":{\"weight\":").append(random.nextInt(1000)).append(",\"height\":").append(random.nextInt(100))
+				.append(",\"width\":").append(random.nextInt(100)).append("},");
+			sb.append("\"audit\":{\"createdBy\":\"user").append(random.nextInt(10)).append("\",\"version\":").append(random.nextInt(20)).append("}");
+			sb.append("}");
+			sources[i] = new BytesArray(sb.toString());
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void createHits(){
+		heading = new Heading();
+		for(String field : SELECT) heading.add(new Column(field));
+		heading.add(new Column(Heading.ID).setSqlType(Types.VARCHAR));
+		heading.buildIndex();
+		parser = new SearchHitParser(compiled);
+		SearchHit[] page = new SearchHit[pageSize];
+		for(int i=0; i<pageSize; i++){
+			page[i] = new SearchHit(i, ""+i, new Text("_doc"), new HashMap<String, DocumentField>(), new HashMap<String, DocumentField>())
+					.sourceRef(sources[i]);
+		}
+		hits = new SearchHits(page, new TotalHits(pageSize, TotalHits.Relation.EQUAL_TO), 1f);
+	}
+
+	@Benchmark
+	public ESResultSet parse() throws SQLException{
+		return parser.parse(hits, null, heading, pageSize, heading.getColumnCount(), true, 0, null);
+	}
+
+	public static void main(String[] args) throws RunnerException{
+		new Runner(new OptionsBuilder().include(SearchHitParserBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,87 @@
+package in.pazmysaz.essql.parse.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.elasticsearch.script.Script;
+import org.junit.Test;
+
+import com.facebook.presto.sql.parser.SqlParser;
+import com.facebook.presto.sql.tree.Expression;
+
+/**
+ * Checks the painless scripts compiled from UPDATE ... SET assignments by the {@link ScriptParser}
+ *
+ * @author cversloot
+ *
+ */
+public class ScriptParserTest {
+
+	private static final SqlParser parser = new SqlParser();
+
+	private static Map<String, Expression> assign(String... fieldsAndExpressions){
+		Map<String, Expression> assignments = new LinkedHashMap<String, Expression>();
+		for(int i=0; i<fieldsAndExpressions.length; i+=2){
+			assignments.put(fieldsAndExpressions[i], parser.createExpression(fieldsAndExpressions[i+1]));
+		}
+		return assignments;
+	}
+
+	@Test
+	public void testArithmeticOnField(){
+		Script script = new ScriptParser("myField = myField * 2").parse(assign("myField", "myField * 2"));
+		assertEquals("painless", script.getLang());
+		assertEquals("def v0 = (ctx._source['myField'] * params.p0); ctx._source['myField'] = v0;", script.getIdOrCode());
+		assertEquals(1, script.getParams().size());
+		assertEquals(2L, script.getParams().get("p0"));
+	}
+
+	@Test
+	public void testParametersNumberedAcrossAssignments(){
+		Script script = new ScriptParser("a = 1, b = 'x', c = true, d = null").parse(assign("a", "1", "b", "'x'", "c", "true", "d", "null"));
+		assertEquals("def v0 = params.p0; def v1 = params.p1; def v2 = params.p2; def v3 = null; "
+				+ "ctx._source['a'] = v0; ctx._source['b'] = v1; ctx._source['c'] = v2; ctx._source['d'] = v3;", script.getIdOrCode());
+		assertEquals(3, script.getParams().size());
+		assertEquals(1L, script.getParams().get("p0"));
+		assertEquals("x", script.getParams().get("p1"));
+		assertEquals(true, script.getParams().get("p2"));
+	}
+
+	@Test
+	public void testValuesCalculatedBeforeAssignment(){
+		Script script = new ScriptParser("a = b, b = a").parse(assign("a", "b", "b", "a"));
+		assertEquals("def v0 = ctx._source['b']; def v1 = ctx._source['a']; ctx._source['a'] = v0; ctx._source['b'] = v1;",
+				script.getIdOrCode());
+	}
+
+	@Test
+	public void testUnaryMinus(){
+		Script script = new ScriptParser("x = -x").parse(assign("x", "-x"));
+		assertEquals("def v0 = -(ctx._source['x']); ctx._source['x'] = v0;", script.getIdOrCode());
+	}
+
+	@Test
+	public void testNestedParentsCreated(){
+		Script script = new ScriptParser("a.b.c = 1").parse(assign("a.b.c", "1"));
+		assertEquals("def v0 = params.p0; "
+				+ "if(ctx._source['a'] == null) ctx._source['a'] = new HashMap(); "
+				+ "if(ctx._source['a']['b'] == null) ctx._source['a']['b'] = new HashMap(); "
+				+ "ctx._source['a']['b']['c'] = v0;", script.getIdOrCode());
+	}
+
+	@Test
+	public void testFieldNamesEscaped(){
+		Script script = new ScriptParser("").parse(assign("it's", "1", "back\\slash", "2"));
+		assertEquals("def v0 = params.p0; def v1 = params.p1; ctx._source['it\\'s'] = v0; ctx._source['back\\\\slash'] = v1;",
+				script.getIdOrCode());
+	}
+
+	@Test
+	public void testUnsupportedExpression(){
+		assertNull(new ScriptParser("a = now()").parse(assign("a", "now()")));
+		assertNull(new ScriptParser("a = 1, b = lower(c)").parse(assign("a", "1", "b", "lower(c)")));
+	}
+}